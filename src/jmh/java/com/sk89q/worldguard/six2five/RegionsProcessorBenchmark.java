@@ -0,0 +1,148 @@
+/*
+ * Six2Five
+ * Copyright (C) sk89q <http://www.sk89q.com>
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.sk89q.worldguard.six2five;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import com.google.common.io.CharStreams;
+import org.yaml.snakeyaml.Yaml;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Measures the three stages of a tree-mode conversion separately: parsing
+ * the file, converting the UUIDs in the loaded tree and writing it back out.
+ *
+ * <p>Names come from a stub source, so no requests are made. Run with
+ * {@code ./gradlew jmh}; the {@code gc} profiler is enabled by the task
+ * to report the allocation rate alongside the throughput.</p>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx6g")
+@State(Scope.Benchmark)
+public class RegionsProcessorBenchmark {
+
+    // Held here because loggers are only weakly referenced by the log manager
+    private static final Logger processorLog = Logger.getLogger(RegionsProcessor.class.getCanonicalName());
+
+    @Param({"1000", "10000", "100000", "1000000"})
+    private int regionCount;
+
+    @Param({"1", "8"})
+    private int ownersPerRegion;
+
+    // Sixteen members on top of eight owners needs more than 6 GB at a million regions
+    @Param({"0", "4"})
+    private int membersPerRegion;
+
+    private final Yaml yaml = new Yaml();
+    private String document;
+    private Map<UUID, String> names;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        // Per-region and per-UUID logging would be most of what is measured
+        processorLog.setLevel(java.util.logging.Level.WARNING);
+
+        RegionsGenerator generator = new RegionsGenerator();
+        generator.setRegionCount(regionCount);
+        generator.setOwners(ownersPerRegion, 0);
+        generator.setMembers(membersPerRegion, 0);
+        generator.setPlayerCount(Math.max(1, regionCount * (ownersPerRegion + membersPerRegion) / 2));
+        StringWriter writer = new StringWriter();
+        generator.generate(writer);
+        document = writer.toString();
+        Set<UUID> uniqueIds = new HashSet<UUID>();
+        StreamingRegionsRewriter.collectUniqueIds(new StringReader(document), uniqueIds);
+        names = new StubNameSource().resolveAll(uniqueIds);
+    }
+
+    @SuppressWarnings("unchecked")
+    @Benchmark
+    public Map<Object, Object> load() {
+        return (Map<Object, Object>) yaml.load(document);
+    }
+
+    @Benchmark
+    public Map<Object, Object> downgrade(LoadedRegions loaded) throws IOException {
+        new RegionsProcessor(new StubNameSource()).downgrade(loaded.data);
+        return loaded.data;
+    }
+
+    @Benchmark
+    public int splice() throws IOException {
+        return StreamingRegionsRewriter.splice(new StringReader(document), new StringReader(document),
+                CharStreams.nullWriter(), names, null);
+    }
+
+    /**
+     * A freshly loaded tree for each call of {@link #downgrade(LoadedRegions)},
+     * which changes it. Only that benchmark uses this state, so the others
+     * do not pay for loading the tree again.
+     */
+    @State(Scope.Thread)
+    public static class LoadedRegions {
+        private Map<Object, Object> data;
+
+        @Setup(Level.Invocation)
+        public void reload(RegionsProcessorBenchmark benchmark) {
+            data = benchmark.load();
+        }
+    }
+
+    private static class StubNameSource implements NameSource {
+        @Override
+        public int getIdealBatchSize() {
+            return Integer.MAX_VALUE;
+        }
+
+        @Override
+        public Map<UUID, String> resolveAll(Collection<UUID> uuids) {
+            Map<UUID, String> names = new HashMap<UUID, String>();
+            for (UUID uuid : uuids) {
+                names.put(uuid, "p" + Long.toHexString(uuid.getLeastSignificantBits() & 0xFFFFFFFFFFFFFL));
+            }
+            return names;
+        }
+    }
+
+}
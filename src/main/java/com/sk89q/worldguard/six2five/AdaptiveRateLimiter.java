@@ -0,0 +1,126 @@
+/*
+ * Six2Five
+ * Copyright (C) sk89q <http://www.sk89q.com>
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.sk89q.worldguard.six2five;
+
+import com.google.common.util.concurrent.RateLimiter;
+
+import java.util.Locale;
+import java.util.logging.Logger;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * A rate limiter that slows down when the server says that requests are
+ * being made too quickly and speeds up again once they are not.
+ *
+ * <p>Every rate limited response halves the rate (down to a floor) and,
+ * if the server said how long to wait, pauses every caller until then.
+ * After a run of successful requests, the rate is raised again in steps
+ * until it is back at the configured rate.</p>
+ */
+public class AdaptiveRateLimiter {
+
+    private static final Logger log = Logger.getLogger(AdaptiveRateLimiter.class.getCanonicalName());
+    private static final double BACKOFF_FACTOR = 0.5;
+    private static final double RAMP_UP_FACTOR = 1.25;
+    private static final int RAMP_UP_AFTER = 10;
+    private static final double MIN_RATE_DIVISOR = 32;
+    private static final Metrics.Timer waitTimer = Metrics.timer("ratelimit.wait");
+
+    private final double maxRate;
+    private final double minRate;
+    private final RateLimiter limiter;
+    private double rate;
+    private int successes;
+    private long pausedUntil;
+
+    /**
+     * Create a new rate limiter.
+     *
+     * @param rate the starting and highest rate, in permits per second
+     */
+    public AdaptiveRateLimiter(double rate) {
+        checkArgument(rate > 0, "rate must be > 0");
+        this.maxRate = rate;
+        this.minRate = rate / MIN_RATE_DIVISOR;
+        this.rate = rate;
+        this.limiter = RateLimiter.create(rate);
+    }
+
+    /**
+     * Wait until a request may be made.
+     *
+     * @throws InterruptedException thrown if the thread is interrupted while waiting
+     */
+    public void acquire() throws InterruptedException {
+        long start = waitTimer.start();
+        long wait;
+        while ((wait = getPauseRemaining()) > 0) {
+            Thread.sleep(wait);
+        }
+        limiter.acquire();
+        waitTimer.stop(start);
+    }
+
+    private synchronized long getPauseRemaining() {
+        return pausedUntil - System.currentTimeMillis();
+    }
+
+    /**
+     * Record that a request succeeded.
+     */
+    public synchronized void onSuccess() {
+        if (++successes >= RAMP_UP_AFTER && rate < maxRate) {
+            successes = 0;
+            setRate(Math.min(maxRate, rate * RAMP_UP_FACTOR));
+        }
+    }
+
+    /**
+     * Record that the server rejected a request for being over
+     * its rate limit.
+     *
+     * @param retryAfter the number of milliseconds that the server asked to wait, or 0
+     */
+    public synchronized void onRateLimited(long retryAfter) {
+        successes = 0;
+        setRate(Math.max(minRate, rate * BACKOFF_FACTOR));
+        if (retryAfter > 0) {
+            pausedUntil = Math.max(pausedUntil, System.currentTimeMillis() + retryAfter);
+        }
+    }
+
+    /**
+     * Get the current rate.
+     *
+     * @return the rate, in permits per second
+     */
+    public synchronized double getRate() {
+        return rate;
+    }
+
+    private void setRate(double rate) {
+        if (rate != this.rate) {
+            this.rate = rate;
+            limiter.setRate(rate);
+            log.fine("Request rate is now " + String.format(Locale.ROOT, "%.3f", rate) + "/sec");
+        }
+    }
+
+}
@@ -0,0 +1,115 @@
+/*
+ * Six2Five
+ * Copyright (C) sk89q <http://www.sk89q.com>
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.sk89q.worldguard.six2five;
+
+import com.google.common.base.Charsets;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.logging.Logger;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * Writes a file by writing a temporary file next to it and moving it over
+ * the target once it is complete, so the target is either left as it was
+ * or fully replaced.
+ *
+ * <p>Output is UTF-8 through a large buffer. {@link #commit()} forces the
+ * temporary file to disk before the move, so a crash right after the
+ * move cannot leave an empty file behind. Closing without committing
+ * deletes the temporary file.</p>
+ */
+final class AtomicFileOutput implements Closeable {
+
+    private static final Logger log = Logger.getLogger(AtomicFileOutput.class.getCanonicalName());
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final File target;
+    private final File temp;
+    private final FileChannel channel;
+    private final Writer writer;
+    private boolean committed = false;
+
+    /**
+     * Create a new output for the given file.
+     *
+     * @param target the file to replace
+     * @throws IOException thrown if the temporary file could not be created
+     */
+    AtomicFileOutput(File target) throws IOException {
+        checkNotNull(target);
+        this.target = target;
+        this.temp = File.createTempFile("." + target.getName() + ".", ".tmp", target.getAbsoluteFile().getParentFile());
+        this.channel = FileChannel.open(temp.toPath(), StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        this.writer = new BufferedWriter(new OutputStreamWriter(Channels.newOutputStream(channel), Charsets.UTF_8), BUFFER_SIZE);
+    }
+
+    /**
+     * Get the writer to write the contents with.
+     *
+     * @return the writer
+     */
+    Writer getWriter() {
+        return writer;
+    }
+
+    /**
+     * Flush the contents to disk and move them over the target.
+     *
+     * @throws IOException thrown if the contents could not be written or moved
+     */
+    void commit() throws IOException {
+        checkState(!committed, "Already committed");
+        writer.flush();
+        channel.force(true);
+        writer.close();
+
+        try {
+            Files.move(temp.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            log.warning("Atomic moves are not supported here; replacing " + target.getAbsolutePath() + " with a plain move");
+            Files.move(temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+        committed = true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (!committed) {
+            try {
+                writer.close();
+            } finally {
+                Files.deleteIfExists(temp.toPath());
+            }
+        }
+    }
+
+}
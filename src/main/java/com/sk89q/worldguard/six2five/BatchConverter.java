@@ -0,0 +1,215 @@
+/*
+ * Six2Five
+ * Copyright (C) sk89q <http://www.sk89q.com>
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.sk89q.worldguard.six2five;
+
+import javax.annotation.Nullable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Converts several regions files at the same time through one shared
+ * name source, so that a UUID found in more than one world is only looked
+ * up once.
+ *
+ * <p>The sources are shared and are not closed here. Whoever created
+ * them closes them once every batch is done.</p>
+ */
+public class BatchConverter {
+
+    private static final Logger log = Logger.getLogger(BatchConverter.class.getCanonicalName());
+    private static final String REGIONS_FILE_NAME = "regions.yml";
+
+    private final NameSource source;
+    @Nullable
+    private final UniqueIdSource upgradeSource;
+    private final int parallelism;
+
+    /**
+     * Create a new batch converter.
+     *
+     * @param source the name source shared by all files
+     * @param parallelism the number of files to convert at the same time
+     */
+    public BatchConverter(NameSource source, int parallelism) {
+        this(source, null, parallelism);
+    }
+
+    /**
+     * Create a new batch converter.
+     *
+     * @param source the name source shared by all files
+     * @param upgradeSource the UUID source to upgrade the files with
+     *                      {@link RegionsProcessor#upgrade(File, UniqueIdSource)}, or null to downgrade them
+     * @param parallelism the number of files to convert at the same time
+     */
+    public BatchConverter(NameSource source, @Nullable UniqueIdSource upgradeSource, int parallelism) {
+        checkNotNull(source);
+        checkArgument(parallelism > 0, "parallelism must be > 0");
+        this.source = source;
+        this.upgradeSource = upgradeSource;
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Find the regions files to convert for the given path.
+     *
+     * <p>A file is returned as-is. For a directory, such as
+     * {@code plugins/WorldGuard/worlds/}, its own {@code regions.yml}
+     * and the {@code regions.yml} of every direct sub-directory
+     * are returned.</p>
+     *
+     * @param path the path
+     * @return a list of files
+     */
+    public static List<File> findRegionFiles(File path) {
+        List<File> files = new ArrayList<File>();
+
+        if (!path.isDirectory()) {
+            files.add(path);
+            return files;
+        }
+
+        File own = new File(path, REGIONS_FILE_NAME);
+        if (own.isFile()) {
+            files.add(own);
+        }
+
+        File[] children = path.listFiles();
+        if (children != null) {
+            Arrays.sort(children);
+            for (File child : children) {
+                File file = new File(child, REGIONS_FILE_NAME);
+                if (child.isDirectory() && file.isFile()) {
+                    files.add(file);
+                }
+            }
+        }
+
+        return files;
+    }
+
+    /**
+     * Convert all the given files and log a summary once all of them
+     * have finished.
+     *
+     * @param files the files
+     * @return true if every file was converted
+     * @throws IOException thrown if the batch was interrupted
+     */
+    public boolean convert(List<File> files) throws IOException {
+        if (files.isEmpty()) {
+            log.warning("No regions files were found to convert");
+            return false;
+        }
+
+        log.info("Converting " + files.size() + " regions file(s), " + Math.min(parallelism, files.size()) + " at a time...");
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(parallelism, files.size()));
+        List<Future<Result>> futures = new ArrayList<Future<Result>>();
+        List<Result> results = new ArrayList<Result>();
+
+        try {
+            for (final File file : files) {
+                futures.add(executor.submit(new Callable<Result>() {
+                    @Override
+                    public Result call() throws Exception {
+                        return convert(file);
+                    }
+                }));
+            }
+
+            for (int i = 0; i < files.size(); i++) {
+                try {
+                    results.add(futures.get(i).get());
+                } catch (ExecutionException e) {
+                    log.log(Level.WARNING, "Failed to convert " + files.get(i).getAbsolutePath(), e.getCause());
+                    results.add(new Result(files.get(i), false, null, 0));
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while converting regions files");
+        } finally {
+            executor.shutdownNow();
+        }
+
+        boolean success = true;
+        log.info("Summary:");
+        for (Result result : results) {
+            log.info(result.toString());
+            success &= result.success;
+        }
+
+        return success;
+    }
+
+    private Result convert(File file) throws IOException {
+        long start = System.currentTimeMillis();
+        // Files are already converted in parallel, so split the processors
+        // between them rather than giving every file all of them
+        int threads = Math.max(1, Runtime.getRuntime().availableProcessors() / parallelism);
+        RegionsProcessor processor = new RegionsProcessor(source, threads);
+        boolean success;
+        if (upgradeSource != null) {
+            success = processor.upgrade(file, upgradeSource);
+        } else {
+            success = processor.downgrade(file);
+        }
+        return new Result(file, success, processor.getStats(), System.currentTimeMillis() - start);
+    }
+
+    private static class Result {
+        private final File file;
+        private final boolean success;
+        @Nullable
+        private final ConversionStats stats;
+        private final long elapsed;
+
+        private Result(File file, boolean success, @Nullable ConversionStats stats, long elapsed) {
+            this.file = file;
+            this.success = success;
+            this.stats = stats;
+            this.elapsed = elapsed;
+        }
+
+        @Override
+        public String toString() {
+            File parent = file.getAbsoluteFile().getParentFile();
+            String world = parent != null ? parent.getName() : file.getName();
+            return "  " + world + ": " + (success ? "OK" : "FAILED")
+                    + (stats != null ? " - " + stats : "")
+                    + " (" + (elapsed / 1000.0) + "s)";
+        }
+    }
+
+}
@@ -0,0 +1,411 @@
+/*
+ * Six2Five
+ * Copyright (C) sk89q <http://www.sk89q.com>
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.sk89q.worldguard.six2five;
+
+import com.google.common.base.Charsets;
+
+import javax.annotation.Nullable;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.AbstractMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.UUID;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A UUID -> name map that stores millions of entries in a few flat
+ * buffers instead of as objects.
+ *
+ * <p>UUIDs are kept as their two {@code long} halves in an open addressing
+ * hash table, and each slot points to the name in an arena of
+ * length-prefixed UTF-8 bytes. An entry costs 30 to 60 bytes depending on
+ * how full the table is, about half of what a {@code UUID}, a
+ * {@code String} and a map entry take on the heap, and none of it is
+ * seen by the garbage collector when the buffers are off the heap.</p>
+ *
+ * <p>The buffers can be kept on the heap or off it. Once they would take
+ * more than the given amount of memory, they are moved to memory-mapped
+ * temporary files instead. Each file is deleted as soon as it is mapped
+ * where the system allows it, and otherwise once it is replaced by a
+ * bigger one or the store is closed.</p>
+ */
+public class CompactNameStore implements Closeable {
+
+    private static final Logger log = Logger.getLogger(CompactNameStore.class.getCanonicalName());
+    static final long DEFAULT_MEMORY_LIMIT = 64 * 1024 * 1024;
+    private static final int SLOT_SIZE = 20; // Most significant bits, least significant bits, name offset + 1
+    private static final int INITIAL_CAPACITY = 1024;
+    private static final int INITIAL_ARENA_SIZE = 16 * 1024;
+    private static final int MAX_NAME_LENGTH = 0xFFFF;
+
+    private final long memoryLimit;
+    private final boolean direct;
+    private ByteBuffer table;
+    @Nullable
+    private File tableFile;
+    private boolean tableMapped;
+    private int capacity;
+    private int size;
+    private ByteBuffer arena;
+    @Nullable
+    private File arenaFile;
+    private boolean arenaMapped;
+    private int arenaUsed;
+    private boolean spilled;
+
+    /**
+     * Create a new store that keeps up to {@link #DEFAULT_MEMORY_LIMIT}
+     * bytes off the heap.
+     */
+    public CompactNameStore() {
+        this(DEFAULT_MEMORY_LIMIT, true);
+    }
+
+    /**
+     * Create a new store.
+     *
+     * @param memoryLimit the most bytes to keep in memory before moving to memory-mapped files
+     * @param direct true to keep the buffers off the heap
+     */
+    public CompactNameStore(long memoryLimit, boolean direct) {
+        checkArgument(memoryLimit >= 0, "memoryLimit must be >= 0");
+        this.memoryLimit = memoryLimit;
+        this.direct = direct;
+        this.capacity = INITIAL_CAPACITY;
+        this.table = allocate(capacity * SLOT_SIZE, true);
+        this.arena = allocate(INITIAL_ARENA_SIZE, false);
+    }
+
+    /**
+     * Get the name of the given UUID.
+     *
+     * @param uuid the UUID
+     * @return the name, or null if it is not known
+     */
+    @Nullable
+    public synchronized String get(UUID uuid) {
+        int slot = findSlot(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits());
+        int offset = table.getInt(slot * SLOT_SIZE + 16);
+        return offset != 0 ? readName(offset - 1) : null;
+    }
+
+    /**
+     * Store the name of a UUID, replacing any earlier name.
+     *
+     * @param uuid the UUID
+     * @param name the name
+     */
+    public synchronized void put(UUID uuid, String name) {
+        checkNotNull(uuid);
+        checkNotNull(name);
+        byte[] bytes = name.getBytes(Charsets.UTF_8);
+        checkArgument(bytes.length <= MAX_NAME_LENGTH, "name is too long");
+
+        long msb = uuid.getMostSignificantBits();
+        long lsb = uuid.getLeastSignificantBits();
+        int slot = findSlot(msb, lsb);
+        int position = slot * SLOT_SIZE;
+        int offset = table.getInt(position + 16);
+
+        if (offset != 0) {
+            if (nameEquals(offset - 1, bytes)) return;
+            // The old name is left in the arena; names rarely change
+            table.putInt(position + 16, writeName(bytes) + 1);
+            return;
+        }
+
+        table.putLong(position, msb);
+        table.putLong(position + 8, lsb);
+        table.putInt(position + 16, writeName(bytes) + 1);
+        size++;
+
+        if (size * 4L >= capacity * 3L) {
+            resize(capacity * 2);
+        }
+    }
+
+    /**
+     * Remove the name of a UUID.
+     *
+     * @param uuid the UUID
+     * @return the name that was removed, or null if there was none
+     */
+    @Nullable
+    public synchronized String remove(UUID uuid) {
+        int hole = findSlot(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits());
+        int offset = table.getInt(hole * SLOT_SIZE + 16);
+        if (offset == 0) return null;
+        String name = readName(offset - 1);
+
+        // Move later entries of the same probe run back so that lookups
+        // never stop at the hole before reaching them
+        int mask = capacity - 1;
+        int next = (hole + 1) & mask;
+        while (table.getInt(next * SLOT_SIZE + 16) != 0) {
+            int position = next * SLOT_SIZE;
+            int ideal = hash(table.getLong(position), table.getLong(position + 8)) & mask;
+            boolean reachable = hole <= next ? ideal > hole && ideal <= next : ideal > hole || ideal <= next;
+            if (!reachable) {
+                copySlot(next, hole);
+                hole = next;
+            }
+            next = (next + 1) & mask;
+        }
+
+        int position = hole * SLOT_SIZE;
+        table.putLong(position, 0);
+        table.putLong(position + 8, 0);
+        table.putInt(position + 16, 0);
+        size--;
+        return name; // The name is left in the arena, as when a name changes
+    }
+
+    private void copySlot(int from, int to) {
+        int source = from * SLOT_SIZE;
+        int target = to * SLOT_SIZE;
+        table.putLong(target, table.getLong(source));
+        table.putLong(target + 8, table.getLong(source + 8));
+        table.putInt(target + 16, table.getInt(source + 16));
+    }
+
+    /**
+     * Get the number of entries.
+     *
+     * @return the number of entries
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Get every entry. The store must not be changed while the entries
+     * are being iterated over.
+     *
+     * @return the entries
+     */
+    public Iterable<Map.Entry<UUID, String>> entries() {
+        return new Iterable<Map.Entry<UUID, String>>() {
+            @Override
+            public Iterator<Map.Entry<UUID, String>> iterator() {
+                return new EntryIterator();
+            }
+        };
+    }
+
+    private int findSlot(long msb, long lsb) {
+        int mask = capacity - 1;
+        int slot = hash(msb, lsb) & mask;
+        while (true) {
+            int position = slot * SLOT_SIZE;
+            if (table.getInt(position + 16) == 0
+                    || (table.getLong(position) == msb && table.getLong(position + 8) == lsb)) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    private static int hash(long msb, long lsb) {
+        long h = msb * 0x9E3779B97F4A7C15L ^ lsb;
+        h ^= h >>> 32;
+        h *= 0xC2B2AE3D27D4EB4FL;
+        return (int) (h ^ (h >>> 29));
+    }
+
+    private void resize(int newCapacity) {
+        checkArgument((long) newCapacity * SLOT_SIZE <= Integer.MAX_VALUE, "Too many entries");
+        ByteBuffer old = table;
+        int oldCapacity = capacity;
+        @Nullable File oldFile = tableFile;
+
+        table = allocate(newCapacity * SLOT_SIZE, true);
+        capacity = newCapacity;
+
+        for (int i = 0; i < oldCapacity; i++) {
+            int position = i * SLOT_SIZE;
+            int offset = old.getInt(position + 16);
+            if (offset == 0) continue;
+            long msb = old.getLong(position);
+            long lsb = old.getLong(position + 8);
+            int slot = findSlot(msb, lsb) * SLOT_SIZE;
+            table.putLong(slot, msb);
+            table.putLong(slot + 8, lsb);
+            table.putInt(slot + 16, offset);
+        }
+
+        delete(oldFile);
+    }
+
+    private int writeName(byte[] bytes) {
+        int needed = arenaUsed + 2 + bytes.length;
+        if (needed > arena.capacity() || needed < 0) {
+            long newSize = Math.max(needed, arena.capacity() * 2L);
+            checkArgument(needed > 0 && newSize <= Integer.MAX_VALUE - 2, "Too many names");
+            ByteBuffer old = arena;
+            @Nullable File oldFile = arenaFile;
+            arena = allocate((int) newSize, false);
+            ByteBuffer source = old.duplicate();
+            source.position(0).limit(arenaUsed);
+            arena.put(source);
+            delete(oldFile);
+        }
+
+        int offset = arenaUsed;
+        arena.putShort(offset, (short) bytes.length);
+        for (int i = 0; i < bytes.length; i++) {
+            arena.put(offset + 2 + i, bytes[i]);
+        }
+        arenaUsed = needed;
+        return offset;
+    }
+
+    private String readName(int offset) {
+        int length = arena.getShort(offset) & 0xFFFF;
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = arena.get(offset + 2 + i);
+        }
+        return new String(bytes, Charsets.UTF_8);
+    }
+
+    private boolean nameEquals(int offset, byte[] bytes) {
+        if ((arena.getShort(offset) & 0xFFFF) != bytes.length) return false;
+        for (int i = 0; i < bytes.length; i++) {
+            if (arena.get(offset + 2 + i) != bytes[i]) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Allocate a new table or arena, in memory if it fits within the limit
+     * together with the other buffer and otherwise in a memory-mapped file.
+     *
+     * @param size the size of the buffer
+     * @param forTable true if the buffer is for the table, false if it is for the arena
+     * @return the buffer
+     */
+    private ByteBuffer allocate(int size, boolean forTable) {
+        @Nullable ByteBuffer other = forTable ? arena : table;
+        boolean otherMapped = forTable ? arenaMapped : tableMapped;
+        long inMemory = size + (other != null && !otherMapped ? other.capacity() : 0L);
+        @Nullable File file = null;
+        ByteBuffer buffer;
+
+        if (inMemory <= memoryLimit) {
+            buffer = direct ? ByteBuffer.allocateDirect(size) : ByteBuffer.allocate(size);
+        } else {
+            try {
+                file = File.createTempFile("six2five-names", ".bin");
+                RandomAccessFile raf = new RandomAccessFile(file, "rw");
+                try {
+                    raf.setLength(size);
+                    buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+                } finally {
+                    raf.close();
+                }
+            } catch (IOException e) {
+                delete(file);
+                throw new RuntimeException("Failed to create a file for the name store", e);
+            }
+
+            // The mapping stays valid once the file is deleted, except on systems
+            // that refuse to delete mapped files, where it is deleted when replaced
+            if (file.delete()) {
+                file = null;
+            }
+
+            if (!spilled) {
+                spilled = true;
+                log.info("The name store has outgrown " + (memoryLimit / 1024 / 1024) + " MiB, so it is continuing in "
+                        + System.getProperty("java.io.tmpdir"));
+            }
+        }
+
+        boolean mapped = inMemory > memoryLimit;
+        if (forTable) {
+            tableFile = file;
+            tableMapped = mapped;
+        } else {
+            arenaFile = file;
+            arenaMapped = mapped;
+        }
+        return buffer;
+    }
+
+    @Override
+    public synchronized void close() {
+        delete(tableFile);
+        delete(arenaFile);
+        tableFile = null;
+        arenaFile = null;
+    }
+
+    private static void delete(@Nullable File file) {
+        if (file != null && !file.delete()) {
+            log.log(Level.FINE, "Failed to delete " + file.getAbsolutePath());
+        }
+    }
+
+    private class EntryIterator implements Iterator<Map.Entry<UUID, String>> {
+        private int slot = -1;
+
+        private EntryIterator() {
+            advance();
+        }
+
+        private void advance() {
+            do {
+                slot++;
+            } while (slot < capacity && table.getInt(slot * SLOT_SIZE + 16) == 0);
+        }
+
+        @Override
+        public boolean hasNext() {
+            return slot < capacity;
+        }
+
+        @Override
+        public Map.Entry<UUID, String> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            int position = slot * SLOT_SIZE;
+            UUID uuid = new UUID(table.getLong(position), table.getLong(position + 8));
+            String name = readName(table.getInt(position + 16) - 1);
+            advance();
+            return new AbstractMap.SimpleImmutableEntry<UUID, String>(uuid, name);
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+}
@@ -0,0 +1,194 @@
+/*
+ * Six2Five
+ * Copyright (C) sk89q <http://www.sk89q.com>
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.sk89q.worldguard.six2five;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+import com.google.common.io.LineProcessor;
+
+import javax.annotation.Nullable;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * An append-only record of the progress of converting one regions file,
+ * kept next to it as {@code regions.yml.journal}.
+ *
+ * <p>The journal stores the backup file once it has been made, with the
+ * size and modification time of the regions file it was made from. If a
+ * run stops before it finishes, the next run on the same file reuses that
+ * backup as long as the regions file has not changed since. If it has,
+ * such as because WorldGuard saved it in the meantime, the backup is
+ * ignored and the conversion starts again from the current file. Names
+ * are not stored here, because the name cache already keeps every name as
+ * soon as it is found. The journal is deleted once the file has
+ * been written.</p>
+ */
+public class ConversionJournal implements Closeable {
+
+    private static final Logger log = Logger.getLogger(ConversionJournal.class.getCanonicalName());
+
+    private static final String BACKUP = "B";
+
+    private final File file;
+    private final File regionsFile;
+    @Nullable
+    private File backupFile;
+    private long originalLength = -1;
+    private long originalLastModified = -1;
+    private final Writer writer;
+
+    private ConversionJournal(File file, File regionsFile) throws IOException {
+        this.file = file;
+        this.regionsFile = regionsFile;
+        replay();
+        writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, true), Charsets.UTF_8));
+    }
+
+    /**
+     * Open the journal for the given regions file, replaying it if a
+     * previous run left one behind.
+     *
+     * @param regionsFile the regions file
+     * @return the journal
+     * @throws IOException thrown if the journal could not be read or opened for writing
+     */
+    public static ConversionJournal open(File regionsFile) throws IOException {
+        checkNotNull(regionsFile);
+        return new ConversionJournal(getJournalFile(regionsFile), regionsFile);
+    }
+
+    /**
+     * Get the journal file used for the given regions file.
+     *
+     * @param regionsFile the regions file
+     * @return the journal file
+     */
+    public static File getJournalFile(File regionsFile) {
+        return new File(regionsFile.getParentFile(), regionsFile.getName() + ".journal");
+    }
+
+    private void replay() throws IOException {
+        if (!file.exists()) return;
+
+        Files.readLines(file, Charsets.UTF_8, new LineProcessor<Void>() {
+            @Override
+            public boolean processLine(String line) {
+                // A torn last line from a crash has fewer fields and is skipped, as
+                // are the name, region and backup lines that older versions wrote
+                String[] parts = line.split("\t", -1);
+                try {
+                    if (parts.length == 4 && parts[0].equals(BACKUP)) {
+                        backupFile = new File(parts[1]);
+                        originalLength = Long.parseLong(parts[2]);
+                        originalLastModified = Long.parseLong(parts[3]);
+                    }
+                } catch (IllegalArgumentException e) {
+                    log.log(Level.WARNING, "Ignoring invalid line in journal: " + line);
+                }
+                return true;
+            }
+
+            @Override
+            public Void getResult() {
+                return null;
+            }
+        });
+
+        if (backupFile == null) return;
+        if (getBackupFile() != null) {
+            log.info("Resuming from " + file.getAbsolutePath() + " with the backup " + backupFile.getAbsolutePath());
+        } else {
+            log.warning("Not resuming from " + file.getAbsolutePath() + " because " + regionsFile.getAbsolutePath()
+                    + " or its backup changed after the previous run; starting again from the current file");
+            backupFile = null;
+        }
+    }
+
+    /**
+     * Get whether a previous run left a backup that can be resumed from.
+     *
+     * @return true if resuming
+     */
+    public boolean isResuming() {
+        return getBackupFile() != null;
+    }
+
+    /**
+     * Get the backup that the previous run made of the original file, if
+     * it got that far, the backup still exists and the regions file has
+     * not changed since.
+     *
+     * @return the backup file, or null
+     */
+    @Nullable
+    public File getBackupFile() {
+        if (backupFile == null || !backupFile.isFile()) return null;
+        if (regionsFile.length() != originalLength || regionsFile.lastModified() != originalLastModified) return null;
+        return backupFile;
+    }
+
+    /**
+     * Record that the original file was backed up to the given file, along
+     * with the size and modification time of the original. The entry is
+     * flushed immediately.
+     *
+     * @param backupFile the backup file
+     */
+    public synchronized void recordBackup(File backupFile) {
+        checkNotNull(backupFile);
+        this.backupFile = backupFile;
+        originalLength = regionsFile.length();
+        originalLastModified = regionsFile.lastModified();
+        try {
+            writer.write(BACKUP + "\t" + backupFile.getAbsolutePath() + "\t" + originalLength + "\t" + originalLastModified + "\n");
+            writer.flush();
+        } catch (IOException e) {
+            log.log(Level.WARNING, "Failed to write to the journal at " + file.getAbsolutePath(), e);
+        }
+    }
+
+    /**
+     * Close the journal and delete it, because the conversion
+     * has finished.
+     *
+     * @throws IOException thrown if the journal could not be closed
+     */
+    public synchronized void complete() throws IOException {
+        writer.close();
+        if (!file.delete()) {
+            log.warning("Failed to delete the journal at " + file.getAbsolutePath());
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        writer.close();
+    }
+
+}
@@ -0,0 +1,220 @@
+/*
+ * Six2Five
+ * Copyright (C) sk89q <http://www.sk89q.com>
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.sk89q.worldguard.six2five;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Closer;
+
+import javax.annotation.Nullable;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Reports what converting a set of regions files would involve without
+ * changing them or making any requests to Mojang.
+ *
+ * <p>For each file, the regions and UUIDs are counted with the same walk
+ * that {@link RegionsProcessor#downgrade(File)} uses. Files that
+ * no longer have any {@code unique-ids} are reported as already
+ * downgraded. The UUIDs of all files are then checked against the name
+ * cache and the offline index to estimate how many would have to be
+ * fetched and how long that would take at the given rate.</p>
+ */
+public class ConversionPlanner {
+
+    private static final Logger log = Logger.getLogger(ConversionPlanner.class.getCanonicalName());
+    private static final String UNIQUE_IDS_KEY = "unique-ids";
+
+    @Nullable
+    private final PersistentNameCache cache;
+    @Nullable
+    private final OfflineNameIndex offlineIndex;
+    private final double fetchesPerSecond;
+
+    /**
+     * Create a new planner.
+     *
+     * @param cache the name cache, or null
+     * @param offlineIndex the offline index, or null
+     * @param fetchesPerSecond the rate that names would be fetched from Mojang at
+     */
+    public ConversionPlanner(@Nullable PersistentNameCache cache, @Nullable OfflineNameIndex offlineIndex, double fetchesPerSecond) {
+        checkArgument(fetchesPerSecond > 0, "fetchesPerSecond must be > 0");
+        this.cache = cache;
+        this.offlineIndex = offlineIndex;
+        this.fetchesPerSecond = fetchesPerSecond;
+    }
+
+    /**
+     * Scan the given files and log the plan.
+     *
+     * @param files the files
+     * @return true if every file could be read
+     */
+    public boolean plan(List<File> files) {
+        if (files.isEmpty()) {
+            log.warning("No regions files were found to plan");
+            return false;
+        }
+
+        boolean success = true;
+        int regionCount = 0;
+        int totalCount = 0;
+        int pendingFiles = 0;
+        Set<UUID> uniqueIds = new LinkedHashSet<UUID>();
+
+        log.info("Plan for " + files.size() + " regions file(s):");
+
+        for (File file : files) {
+            try {
+                if (!mayHaveUniqueIds(file)) {
+                    log.info("  " + file.getAbsolutePath() + ": already downgraded, skip");
+                    continue;
+                }
+
+                List<UUID> found = new ArrayList<UUID>();
+                Closer closer = Closer.create();
+                int regions;
+                try {
+                    Reader reader = closer.register(RegionsProcessor.openReader(file));
+                    regions = StreamingRegionsRewriter.collectUniqueIds(reader, found);
+                } finally {
+                    closer.close();
+                }
+
+                Set<UUID> distinct = new LinkedHashSet<UUID>(found);
+                if (distinct.isEmpty()) {
+                    log.info("  " + file.getAbsolutePath() + ": " + regions + " region(s), already downgraded, skip");
+                } else {
+                    log.info("  " + file.getAbsolutePath() + ": " + regions + " region(s), "
+                            + found.size() + " UUID(s), " + distinct.size() + " distinct");
+                    pendingFiles++;
+                }
+
+                regionCount += regions;
+                totalCount += found.size();
+                uniqueIds.addAll(distinct);
+            } catch (IOException e) {
+                log.log(Level.WARNING, "  " + file.getAbsolutePath() + ": could not be read", e);
+                success = false;
+            }
+        }
+
+        Set<UUID> remaining = new LinkedHashSet<UUID>(uniqueIds);
+        int cached = 0;
+        if (cache != null) {
+            Set<UUID> found = cache.resolveAll(remaining).keySet();
+            cached = found.size();
+            remaining.removeAll(found);
+        }
+        int offline = 0;
+        if (offlineIndex != null) {
+            Set<UUID> found = offlineIndex.resolveAll(remaining).keySet();
+            offline = found.size();
+            remaining.removeAll(found);
+        }
+        int knownFailures = 0;
+        if (cache != null) {
+            for (UUID uuid : remaining) {
+                if (cache.getFailure(uuid) != null) {
+                    knownFailures++;
+                }
+            }
+        }
+        int toFetch = remaining.size() - knownFailures;
+
+        log.info("Totals:");
+        log.info("  " + pendingFiles + " of " + files.size() + " file(s) to convert, " + regionCount + " region(s)");
+        log.info("  " + totalCount + " UUID(s), " + uniqueIds.size() + " distinct");
+        log.info("  name cache: " + cached + " hit(s) (" + percent(cached, uniqueIds.size()) + ")");
+        log.info("  offline names: " + offline + " hit(s) (" + percent(offline, uniqueIds.size()) + ")");
+        if (knownFailures > 0) {
+            log.info("  " + knownFailures + " UUID(s) recently failed and would be skipped");
+        }
+        log.info("  " + toFetch + " UUID(s) to fetch from Mojang at " + fetchesPerSecond + "/s: about "
+                + ProgressReporter.formatDuration((long) Math.ceil(toFetch / fetchesPerSecond)) + " (longer if rate limited)");
+
+        return success;
+    }
+
+    /**
+     * Quickly check whether the given file might still have UUIDs to
+     * convert by scanning its lines, without parsing it.
+     *
+     * <p>Only {@code unique-ids: []} is recognized as empty; any other
+     * value, or a block list followed by an item, counts as possibly
+     * having UUIDs.</p>
+     *
+     * @param file the file
+     * @return false if the file definitely has no UUIDs
+     * @throws IOException thrown on I/O error
+     */
+    static boolean mayHaveUniqueIds(File file) throws IOException {
+        Closer closer = Closer.create();
+        try {
+            BufferedReader reader = closer.register(new BufferedReader(new InputStreamReader(new FileInputStream(file), Charsets.UTF_8)));
+            boolean blockList = false;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String trimmed = line.trim();
+                if (blockList) {
+                    if (trimmed.startsWith("-")) {
+                        return true;
+                    } else if (!trimmed.isEmpty() && !trimmed.startsWith("#")) {
+                        blockList = false;
+                    }
+                }
+                int index = trimmed.indexOf(UNIQUE_IDS_KEY);
+                if (index == 0 && trimmed.startsWith(UNIQUE_IDS_KEY + ":")) {
+                    String value = trimmed.substring(UNIQUE_IDS_KEY.length() + 1).trim();
+                    if (value.isEmpty()) {
+                        blockList = true;
+                    } else if (!value.equals("[]")) {
+                        return true;
+                    }
+                } else if (index >= 0) {
+                    return true; // Quoted or otherwise unusual; let the full scan decide
+                }
+            }
+            return false;
+        } catch (IOException e) {
+            throw closer.rethrow(e);
+        } finally {
+            closer.close();
+        }
+    }
+
+    private static String percent(int count, int total) {
+        return total > 0 ? Math.round(count * 100.0 / total) + "%" : "-";
+    }
+
+}
@@ -0,0 +1,91 @@
+/*
+ * Six2Five
+ * Copyright (C) sk89q <http://www.sk89q.com>
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.sk89q.worldguard.six2five;
+
+/**
+ * Counts of what happened during the conversion of one regions file.
+ */
+public class ConversionStats {
+
+    private int regionCount;
+    private int uniqueIdCount;
+    private int resolvedCount;
+    private int convertedCount;
+
+    /**
+     * Get the number of regions in the file.
+     *
+     * @return the number of regions
+     */
+    public int getRegionCount() {
+        return regionCount;
+    }
+
+    void setRegionCount(int regionCount) {
+        this.regionCount = regionCount;
+    }
+
+    /**
+     * Get the number of distinct valid UUIDs found in the file.
+     *
+     * @return the number of UUIDs
+     */
+    public int getUniqueIdCount() {
+        return uniqueIdCount;
+    }
+
+    void setUniqueIdCount(int uniqueIdCount) {
+        this.uniqueIdCount = uniqueIdCount;
+    }
+
+    /**
+     * Get the number of distinct UUIDs that a name was found for.
+     *
+     * @return the number of resolved UUIDs
+     */
+    public int getResolvedCount() {
+        return resolvedCount;
+    }
+
+    void setResolvedCount(int resolvedCount) {
+        this.resolvedCount = resolvedCount;
+    }
+
+    /**
+     * Get the number of UUID entries that were replaced with a name,
+     * counting a UUID once for every domain that it appeared in.
+     *
+     * @return the number of replaced entries
+     */
+    public int getConvertedCount() {
+        return convertedCount;
+    }
+
+    void addConverted(int count) {
+        this.convertedCount += count;
+    }
+
+    @Override
+    public String toString() {
+        return regionCount + " region(s), "
+                + resolvedCount + "/" + uniqueIdCount + " UUID(s) resolved, "
+                + convertedCount + " entries converted";
+    }
+
+}
@@ -18,92 +18,371 @@
 
 package com.sk89q.worldguard.six2five;
 
-import com.google.common.cache.CacheBuilder;
-import com.google.common.cache.CacheLoader;
-import com.google.common.cache.LoadingCache;
-import com.google.common.util.concurrent.RateLimiter;
-import com.sk89q.squirrelid.util.HttpRequest;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.json.simple.JSONValue;
 
 import javax.annotation.Nullable;
+import java.io.Closeable;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.MalformedURLException;
 import java.net.URL;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
-public class LastNameResolver {
+/**
+ * Looks up the current names of UUIDs from Mojang's session server.
+ */
+public class LastNameResolver implements ReportingNameSource, Closeable {
 
     private static final Logger log = Logger.getLogger(LastNameResolver.class.getCanonicalName());
-    private static final double FETCHES_PER_SECOND = 0.9; // 600 per 10 minutes
+    static final double FETCHES_PER_SECOND = 0.9; // 600 per 10 minutes
+    static final int DEFAULT_THREAD_COUNT = 4;
     private static final int TRY_COUNT = 5;
     private static final int STARTING_RETRY_DELAY = 1000;
+    private static final Metrics.Counter rateLimitedCounter = Metrics.counter("http.429");
+    private static final Metrics.Counter retryCounter = Metrics.counter("http.retries");
+    private static final Metrics.Counter notFoundCounter = Metrics.counter("names.notFound");
+    private static final Metrics.Counter failedCounter = Metrics.counter("names.failed");
+    private static final Metrics.Counter skippedCounter = Metrics.counter("names.skippedFailures");
 
-    private final LoadingCache<UUID, String> nameCache = CacheBuilder.newBuilder()
-            .build(
-                    new CacheLoader<UUID, String>() {
-                        @Override
-                        public String load(UUID key) {
-                            return fetchName(key);
-                        }
-                    });
-    private final RateLimiter rateLimiter = RateLimiter.create(0.9);
+    @Nullable
+    private final CompactNameStore nameCache;
+    private final ConcurrentMap<UUID, NameFailure> failures = new ConcurrentHashMap<UUID, NameFailure>();
+    private final ConcurrentMap<UUID, ListenableFuture<String>> inFlight = new ConcurrentHashMap<UUID, ListenableFuture<String>>();
+    private final double fetchesPerSecond;
+    private final int threadCount;
+    private AdaptiveRateLimiter rateLimiter;
+    private PooledHttpClient httpClient;
+    @Nullable
+    private final PersistentNameCache cache;
+
+    public LastNameResolver() {
+        this(null, FETCHES_PER_SECOND, DEFAULT_THREAD_COUNT);
+    }
+
+    /**
+     * Create a new resolver.
+     *
+     * @param cache a cache to store found names and failed lookups in between runs, or null
+     * @param fetchesPerSecond the highest rate to make requests at
+     * @param threadCount the number of requests that may be in flight at once
+     */
+    public LastNameResolver(@Nullable PersistentNameCache cache, double fetchesPerSecond, int threadCount) {
+        this.cache = cache;
+        // Found names go into the cache when there is one, so keeping a second copy here would only use memory
+        this.nameCache = cache == null ? new CompactNameStore() : null;
+        this.fetchesPerSecond = fetchesPerSecond;
+        this.threadCount = threadCount;
+    }
+
+    /**
+     * Get the HTTP client, creating it and the rate limiter on first use.
+     * Runs where every name is found locally never start either.
+     *
+     * @return the HTTP client
+     */
+    private synchronized PooledHttpClient getHttpClient() {
+        if (httpClient == null) {
+            rateLimiter = new AdaptiveRateLimiter(fetchesPerSecond);
+            httpClient = new PooledHttpClient(threadCount, rateLimiter);
+        }
+        return httpClient;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>Every UUID is queued before the first answer is waited for, so
+     * the rate limiter is never idle between batches. Names are written to
+     * the cache as each one arrives rather than when the batch completes.</p>
+     */
+    @Override
+    public int getIdealBatchSize() {
+        return Integer.MAX_VALUE;
+    }
+
+    @Override
+    public Map<UUID, String> resolveAll(Collection<UUID> uuids) throws IOException {
+        return resolveAll(uuids, null);
+    }
+
+    @Override
+    public Map<UUID, String> resolveAll(Collection<UUID> uuids, @Nullable final ProgressReporter progress) throws IOException {
+        Map<UUID, ListenableFuture<String>> futures = new LinkedHashMap<UUID, ListenableFuture<String>>();
+        for (UUID uuid : uuids) {
+            ListenableFuture<String> future = resolveAsync(uuid);
+            if (progress != null) {
+                future.addListener(new Runnable() {
+                    @Override
+                    public void run() {
+                        progress.increment();
+                    }
+                }, MoreExecutors.sameThreadExecutor());
+            }
+            futures.put(uuid, future);
+        }
+
+        Map<UUID, String> names = new HashMap<UUID, String>();
+        try {
+            for (Map.Entry<UUID, ListenableFuture<String>> entry : futures.entrySet()) {
+                try {
+                    @Nullable String name = entry.getValue().get();
+                    if (name != null) {
+                        names.put(entry.getKey(), name);
+                    }
+                } catch (ExecutionException e) {
+                    log.log(Level.WARNING, "Failed to resolve the name for " + entry.getKey(), e.getCause());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while resolving names");
+        }
+
+        return names;
+    }
 
     @Nullable
     public String resolve(UUID uuid)  {
-        return nameCache.getUnchecked(uuid);
+        return Futures.getUnchecked(resolveAsync(uuid));
     }
 
-    @Nullable
-    private String fetchName(UUID uuid)  {
-        try {
-            Object object = sendRequest(uuid);
+    /**
+     * Look up the name of the given UUID without blocking.
+     *
+     * <p>If a lookup for the same UUID is already in progress, the same
+     * future is returned, so every UUID is only fetched once.</p>
+     *
+     * @param uuid the UUID
+     * @return a future that completes with the name, or with null if there is none
+     */
+    public ListenableFuture<String> resolveAsync(final UUID uuid) {
+        @Nullable String name = cache != null ? cache.get(uuid) : nameCache.get(uuid);
+        if (name != null) {
+            return Futures.immediateFuture(name);
+        }
+
+        @Nullable NameFailure failure = getFailure(uuid);
+        if (failure != null) {
+            if (log.isLoggable(Level.FINE)) {
+                log.fine("Not looking up " + uuid + " again because it recently failed (" + failure.getReason() + ")");
+            }
+            skippedCounter.increment();
+            return Futures.immediateFuture(null);
+        }
 
-            if (object instanceof Map) {
-                Object name = ((Map) object).get("name");
-                if (name != null) {
-                    return String.valueOf(name);
+        SettableFuture<String> future = SettableFuture.create();
+        ListenableFuture<String> existing = inFlight.putIfAbsent(uuid, future);
+        if (existing != null) {
+            return existing;
+        }
+
+        Futures.addCallback(future, new FutureCallback<String>() {
+            @Override
+            public void onSuccess(@Nullable String result) {
+                if (result != null) {
+                    if (cache != null) {
+                        cache.put(uuid, result);
+                    } else {
+                        nameCache.put(uuid, result);
+                    }
                 }
+                inFlight.remove(uuid);
             }
-        } catch (InterruptedException e) {
-            log.log(Level.WARNING, "Failed to get a name for UUID " + uuid + " because the operation was interrupted", e);
-        } catch (IOException e) {
-            log.log(Level.WARNING, "Failed to get a name for UUID " + uuid + " because the HTTP request failed", e);
+
+            @Override
+            public void onFailure(Throwable t) {
+                inFlight.remove(uuid);
+            }
+        });
+
+        try {
+            URL url = new URL("https://sessionserver.mojang.com/session/minecraft/profile/" + uuid.toString().replace("-", ""));
+            sendRequest(uuid, url, TRY_COUNT, STARTING_RETRY_DELAY, future);
+        } catch (MalformedURLException e) {
+            future.setException(e);
         }
 
-        log.log(Level.WARNING, "Failed to get a name for UUID " + uuid + " because Mojang did respond with a name");
+        return future;
+    }
 
-        return null;
+    /**
+     * Get the reason that no name could be found for the given UUID, if
+     * the lookup failed recently enough that it will not be tried again.
+     *
+     * @param uuid the UUID
+     * @return the failure, or null
+     */
+    @Nullable
+    public NameFailure getFailure(UUID uuid) {
+        NameFailure failure = failures.get(uuid);
+        if (failure != null) {
+            if (!failure.isExpired()) {
+                return failure;
+            }
+            failures.remove(uuid);
+        }
+
+        if (cache != null) {
+            failure = cache.getFailure(uuid);
+            if (failure != null) {
+                failures.put(uuid, failure);
+            }
+        }
+
+        return failure;
+    }
+
+    private void recordFailure(UUID uuid, NameFailure.Reason reason) {
+        (reason == NameFailure.Reason.NOT_FOUND ? notFoundCounter : failedCounter).increment();
+        NameFailure failure = NameFailure.create(reason);
+        failures.put(uuid, failure);
+        if (cache != null) {
+            cache.putFailure(uuid, failure);
+        }
     }
 
     @Nullable
-    private Object sendRequest(UUID uuid) throws InterruptedException, IOException {
-        URL url = HttpRequest.url(
-                "https://sessionserver.mojang.com/session/minecraft/profile/" + uuid.toString().replace("-", ""));
-
-        IOException lastException;
-        int left = TRY_COUNT;
-        int retryDelay = STARTING_RETRY_DELAY;
-
-        do {
-            try {
-                rateLimiter.acquire();
-                HttpRequest req = HttpRequest.get(url).execute();
-                switch (req.getResponseCode()) {
-                    case 204: return null; // No user by this UUID?
-                    case 200: return req.returnContent().asJson();
-                    case 429: throw new IOException("Rate limit hit");
-                    default: throw new IOException("Got " + req.getResponseCode() + " as a response code");
+    private static String getName(@Nullable Object object) {
+        if (object instanceof Map) {
+            Object name = ((Map) object).get("name");
+            if (name != null) {
+                return String.valueOf(name);
+            }
+        }
+        return null;
+    }
+
+    private void sendRequest(final UUID uuid, final URL url, final int left, final int retryDelay, final SettableFuture<String> result) {
+        Futures.addCallback(getHttpClient().get(url), new FutureCallback<PooledHttpClient.Response>() {
+            @Override
+            public void onSuccess(PooledHttpClient.Response response) {
+                switch (response.getCode()) {
+                    case 204: // No user by this UUID?
+                        rateLimiter.onSuccess();
+                        log.log(Level.WARNING, "Failed to get a name for UUID " + uuid + " because Mojang did not respond with a name");
+                        recordFailure(uuid, NameFailure.Reason.NOT_FOUND);
+                        result.set(null);
+                        break;
+                    case 200:
+                        rateLimiter.onSuccess();
+                        @Nullable String name = getName(JSONValue.parse(response.getBody()));
+                        if (name == null) {
+                            log.log(Level.WARNING, "Failed to get a name for UUID " + uuid + " because Mojang did not respond with a name");
+                            recordFailure(uuid, NameFailure.Reason.NOT_FOUND);
+                        }
+                        result.set(name);
+                        break;
+                    case 429:
+                        // The limiter slows every request down, so there is no need to wait here
+                        rateLimitedCounter.increment();
+                        rateLimiter.onRateLimited(parseRetryAfter(response.getRetryAfter()));
+                        // Being rate limited says nothing about the UUID, so it does not use up a try
+                        log.log(Level.FINE, "Rate limit hit while looking up the name of " + uuid + "; trying again");
+                        retryCounter.increment();
+                        sendRequest(uuid, url, left, retryDelay, result);
+                        break;
+                    default:
+                        retry(new IOException("Got " + response.getCode() + " as a response code"), retryDelay);
+                }
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                retry(t, retryDelay);
+            }
+
+            private void retry(Throwable t, int delay) {
+                log.log(Level.WARNING, "HTTP request for name failed", t);
+
+                if (left <= 1) {
+                    log.log(Level.WARNING, "Failed to get a name for UUID " + uuid + " because the HTTP request failed", t);
+                    recordFailure(uuid, NameFailure.Reason.REQUEST_FAILED);
+                    result.set(null);
+                    return;
+                }
+
+                retryCounter.increment();
+                if (delay > 0) {
+                    RetryScheduler.INSTANCE.schedule(new Runnable() {
+                        @Override
+                        public void run() {
+                            sendRequest(uuid, url, left - 1, retryDelay * 2, result);
+                        }
+                    }, delay, TimeUnit.MILLISECONDS);
+                } else {
+                    sendRequest(uuid, url, left - 1, retryDelay, result);
                 }
-            } catch (IOException e) {
-                log.log(Level.WARNING, "HTTP request for name failed", e);
-                lastException = e;
-                Thread.sleep(retryDelay);
-                retryDelay *= 2;
             }
-        } while (--left > 0);
+        });
+    }
+
+    /**
+     * Parse the value of a {@code Retry-After} header, which is either a
+     * number of seconds or an HTTP date.
+     *
+     * @param value the header value, or null
+     * @return the number of milliseconds to wait, or 0
+     */
+    static long parseRetryAfter(@Nullable String value) {
+        if (value == null) return 0;
+        value = value.trim();
+
+        try {
+            return Math.max(0, Long.parseLong(value) * 1000);
+        } catch (NumberFormatException ignored) {
+        }
+
+        try {
+            SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+            return Math.max(0, format.parse(value).getTime() - System.currentTimeMillis());
+        } catch (ParseException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Stop the HTTP client's threads, if it was ever started, and free the
+     * names found this run if they were not kept in the cache.
+     */
+    @Override
+    public synchronized void close() {
+        if (httpClient != null) {
+            httpClient.close();
+            httpClient = null;
+        }
+        if (nameCache != null) {
+            nameCache.close();
+        }
+    }
 
-        throw lastException;
+    /**
+     * Holds the scheduler for retries, which is only created once a
+     * request has to be retried.
+     */
+    private static class RetryScheduler {
+        private static final ScheduledExecutorService INSTANCE = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setNameFormat("six2five-retry").setDaemon(true).build());
     }
 
 }
@@ -0,0 +1,65 @@
+/*
+ * Six2Five
+ * Copyright (C) sk89q <http://www.sk89q.com>
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.sk89q.worldguard.six2five;
+
+import java.io.Closeable;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Keeps names in memory for the rest of the run.
+ *
+ * @see CompactNameStore
+ */
+public class MemoryNameSource implements NameCache, Closeable {
+
+    private final CompactNameStore names = new CompactNameStore();
+
+    @Override
+    public int getIdealBatchSize() {
+        return Integer.MAX_VALUE;
+    }
+
+    @Override
+    public Map<UUID, String> resolveAll(Collection<UUID> uuids) {
+        Map<UUID, String> found = new HashMap<UUID, String>();
+        for (UUID uuid : uuids) {
+            String name = names.get(uuid);
+            if (name != null) {
+                found.put(uuid, name);
+            }
+        }
+        return found;
+    }
+
+    @Override
+    public void putAll(Map<UUID, String> names) {
+        for (Map.Entry<UUID, String> entry : names.entrySet()) {
+            this.names.put(entry.getKey(), entry.getValue());
+        }
+    }
+
+    @Override
+    public void close() {
+        names.close();
+    }
+
+}
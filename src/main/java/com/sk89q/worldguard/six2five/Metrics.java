@@ -0,0 +1,252 @@
+/*
+ * Six2Five
+ * Copyright (C) sk89q <http://www.sk89q.com>
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.sk89q.worldguard.six2five;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+import org.json.simple.JSONValue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Counters and timers for the whole run, looked up by name in the same
+ * way as loggers.
+ *
+ * <p>Timers keep a count, total, minimum and maximum, and a histogram with
+ * one bucket per power of two microseconds from which percentiles are
+ * estimated. Everything can be read at any time as a JSON document.</p>
+ */
+public final class Metrics {
+
+    private static final long startTime = System.currentTimeMillis();
+    private static final ConcurrentMap<String, Counter> counters = new ConcurrentHashMap<String, Counter>();
+    private static final ConcurrentMap<String, Timer> timers = new ConcurrentHashMap<String, Timer>();
+
+    private Metrics() {
+    }
+
+    /**
+     * Get the counter with the given name, creating it if needed.
+     *
+     * @param name the name
+     * @return the counter
+     */
+    public static Counter counter(String name) {
+        checkNotNull(name);
+        Counter counter = counters.get(name);
+        if (counter == null) {
+            Counter created = new Counter();
+            counter = counters.putIfAbsent(name, created);
+            if (counter == null) {
+                counter = created;
+            }
+        }
+        return counter;
+    }
+
+    /**
+     * Get the timer with the given name, creating it if needed.
+     *
+     * @param name the name
+     * @return the timer
+     */
+    public static Timer timer(String name) {
+        checkNotNull(name);
+        Timer timer = timers.get(name);
+        if (timer == null) {
+            Timer created = new Timer();
+            timer = timers.putIfAbsent(name, created);
+            if (timer == null) {
+                timer = created;
+            }
+        }
+        return timer;
+    }
+
+    /**
+     * Get the current value of every metric.
+     *
+     * @return a map of {@code uptimeMs}, {@code counters} and {@code timers}
+     */
+    public static Map<String, Object> snapshot() {
+        Map<String, Object> counterValues = new TreeMap<String, Object>();
+        for (Map.Entry<String, Counter> entry : counters.entrySet()) {
+            counterValues.put(entry.getKey(), entry.getValue().get());
+        }
+
+        Map<String, Object> timerValues = new TreeMap<String, Object>();
+        for (Map.Entry<String, Timer> entry : timers.entrySet()) {
+            timerValues.put(entry.getKey(), entry.getValue().snapshot());
+        }
+
+        Map<String, Object> snapshot = new LinkedHashMap<String, Object>();
+        snapshot.put("uptimeMs", System.currentTimeMillis() - startTime);
+        snapshot.put("counters", counterValues);
+        snapshot.put("timers", timerValues);
+        return snapshot;
+    }
+
+    /**
+     * Get the current value of every metric as JSON.
+     *
+     * @return a JSON document
+     */
+    public static String toJson() {
+        return JSONValue.toJSONString(snapshot());
+    }
+
+    /**
+     * Write the current value of every metric to a JSON file.
+     *
+     * @param file the file
+     * @throws IOException thrown on I/O error
+     */
+    public static void writeReport(File file) throws IOException {
+        Files.write(toJson(), file, Charsets.UTF_8);
+    }
+
+    /**
+     * A count of events.
+     */
+    public static final class Counter {
+        private final AtomicLong value = new AtomicLong();
+
+        private Counter() {
+        }
+
+        public void increment() {
+            value.incrementAndGet();
+        }
+
+        public void add(long amount) {
+            value.addAndGet(amount);
+        }
+
+        public long get() {
+            return value.get();
+        }
+    }
+
+    /**
+     * A histogram of durations.
+     */
+    public static final class Timer {
+        private static final int BUCKET_COUNT = 40;
+
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong total = new AtomicLong();
+        private final AtomicLong min = new AtomicLong(Long.MAX_VALUE);
+        private final AtomicLong max = new AtomicLong();
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+
+        private Timer() {
+        }
+
+        /**
+         * Get the current time to pass to {@link #stop(long)} later.
+         *
+         * @return the current time in nanoseconds
+         */
+        public long start() {
+            return System.nanoTime();
+        }
+
+        /**
+         * Record the time since the given start time.
+         *
+         * @param start the value returned by {@link #start()}
+         */
+        public void stop(long start) {
+            record(System.nanoTime() - start);
+        }
+
+        /**
+         * Record a duration.
+         *
+         * @param nanos the duration in nanoseconds
+         */
+        public void record(long nanos) {
+            nanos = Math.max(0, nanos);
+            count.incrementAndGet();
+            total.addAndGet(nanos);
+
+            long current;
+            while (nanos < (current = min.get()) && !min.compareAndSet(current, nanos)) {
+            }
+            while (nanos > (current = max.get()) && !max.compareAndSet(current, nanos)) {
+            }
+
+            long micros = TimeUnit.NANOSECONDS.toMicros(nanos);
+            buckets.incrementAndGet(Math.min(BUCKET_COUNT - 1, 64 - Long.numberOfLeadingZeros(micros)));
+        }
+
+        public long getCount() {
+            return count.get();
+        }
+
+        /**
+         * Estimate a percentile from the histogram. The result is the upper
+         * bound of the bucket that the percentile falls in.
+         *
+         * @param percentile a value between 0 and 1
+         * @return the duration in milliseconds
+         */
+        public double getPercentile(double percentile) {
+            long target = (long) Math.ceil(count.get() * percentile);
+            long seen = 0;
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                seen += buckets.get(i);
+                if (seen >= target && seen > 0) {
+                    return Math.min((1L << i) / 1000.0, toMillis(max.get()));
+                }
+            }
+            return toMillis(max.get());
+        }
+
+        private Map<String, Object> snapshot() {
+            long count = this.count.get();
+            Map<String, Object> values = new LinkedHashMap<String, Object>();
+            values.put("count", count);
+            values.put("totalMs", toMillis(total.get()));
+            values.put("meanMs", count > 0 ? toMillis(total.get() / count) : 0.0);
+            values.put("minMs", count > 0 ? toMillis(min.get()) : 0.0);
+            values.put("maxMs", toMillis(max.get()));
+            values.put("p50Ms", getPercentile(0.5));
+            values.put("p90Ms", getPercentile(0.9));
+            values.put("p99Ms", getPercentile(0.99));
+            return values;
+        }
+
+        private static double toMillis(long nanos) {
+            return nanos / 1000000.0;
+        }
+    }
+
+}
@@ -0,0 +1,36 @@
+/*
+ * Six2Five
+ * Copyright (C) sk89q <http://www.sk89q.com>
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.sk89q.worldguard.six2five;
+
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * A name source that can also store names found by other sources.
+ */
+public interface NameCache extends NameSource {
+
+    /**
+     * Store the given names.
+     *
+     * @param names a map of UUIDs to names
+     */
+    void putAll(Map<UUID, String> names);
+
+}
@@ -0,0 +1,103 @@
+/*
+ * Six2Five
+ * Copyright (C) sk89q <http://www.sk89q.com>
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.sk89q.worldguard.six2five;
+
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Remembers that no name could be found for a UUID, so that the lookup is
+ * not repeated until the failure expires.
+ */
+public class NameFailure {
+
+    /**
+     * Why no name was found.
+     */
+    public enum Reason {
+        /**
+         * Mojang answered, but did not have a name for the UUID.
+         */
+        NOT_FOUND(TimeUnit.DAYS.toMillis(7)),
+
+        /**
+         * Every attempt at asking Mojang failed.
+         */
+        REQUEST_FAILED(TimeUnit.HOURS.toMillis(1));
+
+        private final long ttl;
+
+        Reason(long ttl) {
+            this.ttl = ttl;
+        }
+
+        /**
+         * Get how long a failure for this reason is remembered.
+         *
+         * @return the time in milliseconds
+         */
+        public long getTtl() {
+            return ttl;
+        }
+    }
+
+    private final Reason reason;
+    private final long expiresAt;
+
+    /**
+     * Create a new failure.
+     *
+     * @param reason the reason
+     * @param expiresAt the time, in milliseconds since the epoch, after which the lookup may be tried again
+     */
+    public NameFailure(Reason reason, long expiresAt) {
+        checkNotNull(reason);
+        this.reason = reason;
+        this.expiresAt = expiresAt;
+    }
+
+    /**
+     * Create a new failure that expires after the TTL of the reason.
+     *
+     * @param reason the reason
+     * @return a new failure
+     */
+    public static NameFailure create(Reason reason) {
+        return new NameFailure(reason, System.currentTimeMillis() + reason.getTtl());
+    }
+
+    public Reason getReason() {
+        return reason;
+    }
+
+    public long getExpiresAt() {
+        return expiresAt;
+    }
+
+    /**
+     * Get whether the lookup may be tried again.
+     *
+     * @return true if expired
+     */
+    public boolean isExpired() {
+        return System.currentTimeMillis() >= expiresAt;
+    }
+
+}
@@ -0,0 +1,114 @@
+/*
+ * Six2Five
+ * Copyright (C) sk89q <http://www.sk89q.com>
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.sk89q.worldguard.six2five;
+
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.SetMultimap;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * A lower case name -> UUID index over a map of UUIDs to names, so that
+ * UUIDs can be looked up by name without scanning the whole map.
+ *
+ * <p>A name that belongs to more than one UUID, such as after a player
+ * changed their name and someone else took the old one, is never
+ * returned because there is no way to tell which UUID is current.</p>
+ */
+final class NameIndex {
+
+    private final Map<String, UUID> unique = new HashMap<String, UUID>();
+    private final SetMultimap<String, UUID> shared = HashMultimap.create();
+
+    /**
+     * Create an index of the given names.
+     *
+     * @param names pairs of UUIDs and names
+     */
+    NameIndex(Iterable<Map.Entry<UUID, String>> names) {
+        for (Map.Entry<UUID, String> entry : names) {
+            put(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * Add a name to the index.
+     *
+     * @param uuid the UUID
+     * @param name the name
+     */
+    synchronized void put(UUID uuid, String name) {
+        String key = name.toLowerCase(Locale.ROOT);
+        if (shared.containsKey(key)) {
+            shared.put(key, uuid);
+            return;
+        }
+
+        UUID existing = unique.put(key, uuid);
+        if (existing != null && !existing.equals(uuid)) {
+            unique.remove(key);
+            shared.put(key, existing);
+            shared.put(key, uuid);
+        }
+    }
+
+    /**
+     * Remove a name from the index.
+     *
+     * @param uuid the UUID
+     * @param name the name that the UUID had
+     */
+    synchronized void remove(UUID uuid, String name) {
+        String key = name.toLowerCase(Locale.ROOT);
+        if (shared.remove(key, uuid)) {
+            Set<UUID> remaining = shared.get(key);
+            if (remaining.size() == 1) {
+                UUID last = remaining.iterator().next();
+                shared.removeAll(key);
+                unique.put(key, last);
+            }
+        } else if (uuid.equals(unique.get(key))) {
+            unique.remove(key);
+        }
+    }
+
+    /**
+     * Find the UUIDs of the given names.
+     *
+     * @param names the names to look for, in lower case
+     * @return a map of the names that exactly one UUID was found for
+     */
+    synchronized Map<String, UUID> findUniqueIds(Collection<String> names) {
+        Map<String, UUID> found = new HashMap<String, UUID>();
+        for (String name : names) {
+            UUID uuid = unique.get(name);
+            if (uuid != null) {
+                found.put(name, uuid);
+            }
+        }
+        return found;
+    }
+
+}
@@ -0,0 +1,110 @@
+/*
+ * Six2Five
+ * Copyright (C) sk89q <http://www.sk89q.com>
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.sk89q.worldguard.six2five;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Asks a list of name sources in order, giving each source only the UUIDs
+ * that the sources before it did not have a name for.
+ *
+ * <p>Sources are given UUIDs in batches of their ideal batch size. Names
+ * found by a source are stored in every {@link NameCache} before it as
+ * soon as each batch completes, so the next lookup stops earlier in
+ * the chain.</p>
+ */
+public class NameSourceChain extends SourceChain<UUID, String, NameSource> implements ReportingNameSource {
+
+    /**
+     * Create a new chain.
+     *
+     * @param sources the sources, fastest first
+     */
+    public NameSourceChain(List<? extends NameSource> sources) {
+        super(sources, "names.");
+    }
+
+    @Override
+    public int getIdealBatchSize() {
+        return Integer.MAX_VALUE;
+    }
+
+    @Override
+    public Map<UUID, String> resolveAll(Collection<UUID> uuids) throws IOException {
+        return resolve(uuids, null);
+    }
+
+    @Override
+    public Map<UUID, String> resolveAll(Collection<UUID> uuids, @Nullable ProgressReporter progress) throws IOException {
+        return resolve(uuids, progress);
+    }
+
+    /**
+     * Look up the names of the given UUIDs from any source, reporting
+     * progress as each UUID completes if the source can, and all at once
+     * when it returns otherwise.
+     *
+     * @param source the source
+     * @param uuids the UUIDs
+     * @param progress the progress to add to
+     * @return a map of the UUIDs that a name was found for
+     * @throws IOException thrown if the lookup could not be completed
+     */
+    static Map<UUID, String> resolveAll(NameSource source, Collection<UUID> uuids, ProgressReporter progress) throws IOException {
+        if (source instanceof ReportingNameSource) {
+            return ((ReportingNameSource) source).resolveAll(uuids, progress);
+        }
+        Map<UUID, String> names = source.resolveAll(uuids);
+        progress.add(uuids.size());
+        return names;
+    }
+
+    @Override
+    int getIdealBatchSize(NameSource source) {
+        return source.getIdealBatchSize();
+    }
+
+    @Override
+    boolean isReporting(NameSource source) {
+        return source instanceof ReportingNameSource;
+    }
+
+    @Override
+    Map<UUID, String> resolve(NameSource source, List<UUID> batch, @Nullable ProgressReporter progress) throws IOException {
+        return progress != null && source instanceof ReportingNameSource
+                ? ((ReportingNameSource) source).resolveAll(batch, progress)
+                : source.resolveAll(batch);
+    }
+
+    @Override
+    void found(List<NameSource> earlier, Map<UUID, String> result) {
+        for (NameSource source : earlier) {
+            if (source instanceof NameCache) {
+                ((NameCache) source).putAll(result);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,298 @@
+/*
+ * Six2Five
+ * Copyright (C) sk89q <http://www.sk89q.com>
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.sk89q.worldguard.six2five;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Closer;
+import com.google.common.io.Files;
+import com.google.common.io.LineProcessor;
+import com.sk89q.squirrelid.util.UUIDs;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+import org.yaml.snakeyaml.Yaml;
+import org.yaml.snakeyaml.error.YAMLException;
+
+import javax.annotation.Nullable;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * An in-memory index of UUID -> name pairs read from files that the server
+ * already has, so that players the server has seen do not need to be
+ * looked up from Mojang.
+ *
+ * <p>The index is filled once at startup and is read-only afterwards.
+ * Supported sources are the server's {@code usercache.json}, a Bukkit
+ * {@code playerdata} directory, an Essentials {@code userdata} directory
+ * and CSV files with {@code uuid,name} lines.</p>
+ */
+public class OfflineNameIndex implements NameSource, UniqueIdSource {
+
+    private static final Logger log = Logger.getLogger(OfflineNameIndex.class.getCanonicalName());
+
+    private final Map<UUID, String> names = new HashMap<UUID, String>();
+    @Nullable
+    private NameIndex index;
+
+    /**
+     * Add the names from the given file or directory, picking the format
+     * from the file extension or the contents of the directory.
+     *
+     * @param path the file or directory
+     * @throws IOException thrown if the source could not be read
+     */
+    public void add(File path) throws IOException {
+        if (path.isDirectory()) {
+            File[] files = path.listFiles();
+            boolean playerData = false;
+            if (files != null) {
+                for (File file : files) {
+                    if (Files.getFileExtension(file.getName()).equalsIgnoreCase("dat")) {
+                        playerData = true;
+                        break;
+                    }
+                }
+            }
+            if (playerData) {
+                addPlayerData(path);
+            } else {
+                addUserData(path);
+            }
+        } else if (Files.getFileExtension(path.getName()).equalsIgnoreCase("json")) {
+            addUserCache(path);
+        } else {
+            addCsv(path);
+        }
+    }
+
+    /**
+     * Add the names from a server's {@code usercache.json}.
+     *
+     * @param file the file
+     * @throws IOException thrown if the file could not be read
+     */
+    public void addUserCache(File file) throws IOException {
+        Object root;
+        Closer closer = Closer.create();
+        try {
+            Reader reader = closer.register(new BufferedReader(new InputStreamReader(new FileInputStream(file), Charsets.UTF_8)));
+            root = new JSONParser().parse(reader);
+        } catch (ParseException e) {
+            throw new IOException("Failed to parse " + file.getAbsolutePath(), e);
+        } finally {
+            closer.close();
+        }
+
+        int count = 0;
+        if (root instanceof List) {
+            for (Object entry : (List<?>) root) {
+                if (entry instanceof Map) {
+                    Map<?, ?> map = (Map<?, ?>) entry;
+                    if (put(map.get("uuid"), map.get("name"))) {
+                        count++;
+                    }
+                }
+            }
+        }
+
+        logAdded(count, file);
+    }
+
+    /**
+     * Add the names from a Bukkit {@code playerdata} directory.
+     *
+     * @param dir the directory
+     * @throws IOException thrown if the directory could not be listed
+     */
+    public void addPlayerData(File dir) throws IOException {
+        int count = 0;
+        for (File file : listFiles(dir, "dat")) {
+            try {
+                if (put(Files.getNameWithoutExtension(file.getName()), PlayerDataReader.readLastKnownName(file))) {
+                    count++;
+                }
+            } catch (IOException e) {
+                log.log(Level.FINE, "Failed to read " + file.getAbsolutePath(), e);
+            }
+        }
+
+        logAdded(count, dir);
+    }
+
+    /**
+     * Add the names from an Essentials {@code userdata} directory, where
+     * each player has a {@code <uuid>.yml} file with a
+     * {@code lastAccountName} key.
+     *
+     * @param dir the directory
+     * @throws IOException thrown if the directory could not be listed
+     */
+    public void addUserData(File dir) throws IOException {
+        Yaml yaml = new Yaml();
+        int count = 0;
+        for (File file : listFiles(dir, "yml")) {
+            Closer closer = Closer.create();
+            try {
+                Reader reader = closer.register(new InputStreamReader(new FileInputStream(file), Charsets.UTF_8));
+                Object data = yaml.load(reader);
+                if (data instanceof Map && put(Files.getNameWithoutExtension(file.getName()), ((Map<?, ?>) data).get("lastAccountName"))) {
+                    count++;
+                }
+            } catch (IOException e) {
+                log.log(Level.FINE, "Failed to read " + file.getAbsolutePath(), e);
+            } catch (YAMLException e) {
+                log.log(Level.FINE, "Failed to parse " + file.getAbsolutePath(), e);
+            } finally {
+                closer.close();
+            }
+        }
+
+        logAdded(count, dir);
+    }
+
+    /**
+     * Add the names from a file with one {@code uuid,name} pair per line.
+     * Lines that do not start with a valid UUID, such as a header, are
+     * skipped.
+     *
+     * @param file the file
+     * @throws IOException thrown if the file could not be read
+     */
+    public void addCsv(File file) throws IOException {
+        int count = Files.readLines(file, Charsets.UTF_8, new LineProcessor<Integer>() {
+            private int count = 0;
+
+            @Override
+            public boolean processLine(String line) {
+                String[] parts = line.split(",", 3);
+                if (parts.length >= 2 && put(parts[0].trim(), parts[1].trim())) {
+                    count++;
+                }
+                return true;
+            }
+
+            @Override
+            public Integer getResult() {
+                return count;
+            }
+        });
+
+        logAdded(count, file);
+    }
+
+    /**
+     * Get the name of the given UUID.
+     *
+     * @param uuid the UUID
+     * @return the name, or null if it is not known
+     */
+    @Nullable
+    public String get(UUID uuid) {
+        return names.get(uuid);
+    }
+
+    @Override
+    public int getIdealBatchSize() {
+        return Integer.MAX_VALUE;
+    }
+
+    @Override
+    public Map<UUID, String> resolveAll(Collection<UUID> uuids) {
+        Map<UUID, String> found = new HashMap<UUID, String>();
+        for (UUID uuid : uuids) {
+            String name = names.get(uuid);
+            if (name != null) {
+                found.put(uuid, name);
+            }
+        }
+        return found;
+    }
+
+    @Override
+    public Map<String, UUID> resolveUniqueIds(Collection<String> names) {
+        return getIndex().findUniqueIds(names);
+    }
+
+    /**
+     * Get the name index, building it on first use. Files converted at the
+     * same time may ask for it at the same time.
+     *
+     * @return the index
+     */
+    private synchronized NameIndex getIndex() {
+        if (index == null) {
+            index = new NameIndex(names.entrySet());
+        }
+        return index;
+    }
+
+    /**
+     * Get the number of known names.
+     *
+     * @return the number of names
+     */
+    public int size() {
+        return names.size();
+    }
+
+    private synchronized boolean put(@Nullable Object rawUuid, @Nullable Object name) {
+        if (rawUuid == null || name == null || String.valueOf(name).isEmpty()) {
+            return false;
+        }
+        try {
+            names.put(UUID.fromString(UUIDs.addDashes(String.valueOf(rawUuid))), String.valueOf(name));
+            index = null; // Only built once the index is complete, so it is rebuilt if a source is added later
+            return true;
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    private static File[] listFiles(File dir, String extension) throws IOException {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            throw new IOException("Failed to list the files in " + dir.getAbsolutePath());
+        }
+        int count = 0;
+        for (File file : files) {
+            if (Files.getFileExtension(file.getName()).equalsIgnoreCase(extension)) {
+                files[count++] = file;
+            }
+        }
+        File[] matching = new File[count];
+        System.arraycopy(files, 0, matching, 0, count);
+        return matching;
+    }
+
+    private void logAdded(int count, File source) {
+        log.info("Indexed " + count + " name(s) from " + source.getAbsolutePath());
+    }
+
+}
@@ -0,0 +1,275 @@
+/*
+ * Six2Five
+ * Copyright (C) sk89q <http://www.sk89q.com>
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.sk89q.worldguard.six2five;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+import com.google.common.io.LineProcessor;
+
+import javax.annotation.Nullable;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A UUID -> name cache that is kept in a file so that names resolved
+ * during one run do not need to be fetched again in the next.
+ *
+ * <p>The file has one {@code uuid<TAB>name} entry per line. UUIDs that no
+ * name could be found for are stored as
+ * {@code uuid<TAB><TAB>reason<TAB>expiry} until the failure expires.
+ * New entries are appended and flushed as soon as they are stored, so
+ * they survive even if the program does not exit cleanly. If a UUID
+ * appears more than once, the last entry wins.</p>
+ *
+ * <p>The names are held in a {@link CompactNameStore} rather than as
+ * objects, because a network's cache can hold millions of them.</p>
+ */
+public class PersistentNameCache implements NameCache, Closeable, UniqueIdSource {
+
+    private static final Logger log = Logger.getLogger(PersistentNameCache.class.getCanonicalName());
+
+    private final File file;
+    private final CompactNameStore names = new CompactNameStore();
+    private final Map<UUID, NameFailure> failures = new ConcurrentHashMap<UUID, NameFailure>();
+    private final Writer writer;
+    @Nullable
+    private NameIndex index;
+
+    /**
+     * Create a new cache, loading existing entries from the given file.
+     *
+     * @param file the cache file, which does not have to exist yet
+     * @throws IOException thrown if the file could not be read or opened for writing
+     */
+    public PersistentNameCache(File file) throws IOException {
+        checkNotNull(file);
+        this.file = file;
+        load();
+        writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, true), Charsets.UTF_8));
+    }
+
+    private void load() throws IOException {
+        if (!file.exists()) return;
+
+        int count = Files.readLines(file, Charsets.UTF_8, new LineProcessor<Integer>() {
+            private int count = 0;
+
+            @Override
+            public boolean processLine(String line) {
+                String[] parts = line.split("\t", -1);
+                try {
+                    if (parts.length == 2 && !parts[1].isEmpty()) {
+                        UUID uuid = UUID.fromString(parts[0]);
+                        names.put(uuid, parts[1]);
+                        failures.remove(uuid);
+                        count++;
+                    } else if (parts.length == 4 && parts[1].isEmpty()) {
+                        UUID uuid = UUID.fromString(parts[0]);
+                        NameFailure failure = new NameFailure(NameFailure.Reason.valueOf(parts[2]), Long.parseLong(parts[3]));
+                        names.remove(uuid);
+                        if (!failure.isExpired()) {
+                            failures.put(uuid, failure);
+                        } else {
+                            failures.remove(uuid);
+                        }
+                    }
+                } catch (IllegalArgumentException e) {
+                    log.log(Level.WARNING, "Ignoring invalid line in name cache: " + line);
+                }
+                return true;
+            }
+
+            @Override
+            public Integer getResult() {
+                return count;
+            }
+        });
+
+        log.info("Loaded " + count + " cached name(s) from " + file.getAbsolutePath());
+    }
+
+    /**
+     * Get the file that backs this cache.
+     *
+     * @return the file
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Get the cached name of the given UUID.
+     *
+     * @param uuid the UUID
+     * @return the name, or null if it is not cached
+     */
+    @Nullable
+    public String get(UUID uuid) {
+        return names.get(uuid);
+    }
+
+    /**
+     * Store a name and write it to the file immediately.
+     *
+     * <p>If the file cannot be written to, a warning is logged and the
+     * name is only kept in memory. Any failure stored for the UUID
+     * is cleared.</p>
+     *
+     * @param uuid the UUID
+     * @param name the name
+     */
+    public synchronized void put(UUID uuid, String name) {
+        checkNotNull(uuid);
+        checkNotNull(name);
+
+        failures.remove(uuid);
+        String previous = names.get(uuid);
+        if (name.equals(previous)) {
+            return;
+        }
+        names.put(uuid, name);
+        if (index != null) {
+            if (previous != null) {
+                index.remove(uuid, previous);
+            }
+            index.put(uuid, name);
+        }
+
+        write(uuid + "\t" + name + "\n");
+    }
+
+    @Override
+    public int getIdealBatchSize() {
+        return Integer.MAX_VALUE;
+    }
+
+    @Override
+    public Map<UUID, String> resolveAll(Collection<UUID> uuids) {
+        Map<UUID, String> found = new HashMap<UUID, String>();
+        for (UUID uuid : uuids) {
+            String name = names.get(uuid);
+            if (name != null) {
+                found.put(uuid, name);
+            }
+        }
+        return found;
+    }
+
+    @Override
+    public Map<String, UUID> resolveUniqueIds(Collection<String> names) {
+        return getIndex().findUniqueIds(names);
+    }
+
+    /**
+     * Get the name index, building it on first use. Runs that never look
+     * up UUIDs by name do not pay for it.
+     *
+     * @return the index
+     */
+    private synchronized NameIndex getIndex() {
+        if (index == null) {
+            index = new NameIndex(names.entries());
+        }
+        return index;
+    }
+
+    @Override
+    public void putAll(Map<UUID, String> names) {
+        for (Map.Entry<UUID, String> entry : names.entrySet()) {
+            put(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * Get the failure recorded for the given UUID, if it has not expired.
+     *
+     * @param uuid the UUID
+     * @return the failure, or null
+     */
+    @Nullable
+    public NameFailure getFailure(UUID uuid) {
+        NameFailure failure = failures.get(uuid);
+        if (failure != null && failure.isExpired()) {
+            failures.remove(uuid);
+            return null;
+        }
+        return failure;
+    }
+
+    /**
+     * Store that no name could be found for a UUID and write it to the
+     * file immediately.
+     *
+     * @param uuid the UUID
+     * @param failure the failure
+     */
+    public synchronized void putFailure(UUID uuid, NameFailure failure) {
+        checkNotNull(uuid);
+        checkNotNull(failure);
+
+        String previous = names.remove(uuid);
+        if (previous != null && index != null) {
+            index.remove(uuid, previous);
+        }
+        failures.put(uuid, failure);
+        write(uuid + "\t\t" + failure.getReason().name() + "\t" + failure.getExpiresAt() + "\n");
+    }
+
+    private void write(String line) {
+        try {
+            writer.write(line);
+            writer.flush();
+        } catch (IOException e) {
+            log.log(Level.WARNING, "Failed to write to the name cache at " + file.getAbsolutePath(), e);
+        }
+    }
+
+    /**
+     * Get the number of cached names.
+     *
+     * @return the number of names
+     */
+    public int size() {
+        return names.size();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            writer.close();
+        } finally {
+            names.close();
+        }
+    }
+
+}
@@ -0,0 +1,152 @@
+/*
+ * Six2Five
+ * Copyright (C) sk89q <http://www.sk89q.com>
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.sk89q.worldguard.six2five;
+
+import com.google.common.io.Closer;
+
+import javax.annotation.Nullable;
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Reads the last known name of a player from a Bukkit
+ * {@code world/playerdata/<uuid>.dat} file.
+ *
+ * <p>Only the {@code bukkit.lastKnownName} tag is read; everything else
+ * in the file is skipped over without being kept.</p>
+ */
+final class PlayerDataReader {
+
+    private static final int TAG_END = 0;
+    private static final int TAG_BYTE = 1;
+    private static final int TAG_SHORT = 2;
+    private static final int TAG_INT = 3;
+    private static final int TAG_LONG = 4;
+    private static final int TAG_FLOAT = 5;
+    private static final int TAG_DOUBLE = 6;
+    private static final int TAG_BYTE_ARRAY = 7;
+    private static final int TAG_STRING = 8;
+    private static final int TAG_LIST = 9;
+    private static final int TAG_COMPOUND = 10;
+    private static final int TAG_INT_ARRAY = 11;
+    private static final int TAG_LONG_ARRAY = 12;
+
+    private PlayerDataReader() {
+    }
+
+    /**
+     * Read the last known name from the given player data file.
+     *
+     * @param file the file
+     * @return the name, or null if the file does not have one
+     * @throws IOException thrown if the file could not be read
+     */
+    @Nullable
+    public static String readLastKnownName(File file) throws IOException {
+        Closer closer = Closer.create();
+        try {
+            DataInputStream in = closer.register(new DataInputStream(
+                    new BufferedInputStream(new GZIPInputStream(new FileInputStream(file)))));
+
+            if (in.readByte() != TAG_COMPOUND) {
+                return null;
+            }
+            in.readUTF(); // Root name
+
+            return findName(in);
+        } finally {
+            closer.close();
+        }
+    }
+
+    @Nullable
+    private static String findName(DataInputStream in) throws IOException {
+        String found = null;
+        int type;
+        while ((type = in.readByte()) != TAG_END) {
+            String name = in.readUTF();
+            if (type == TAG_COMPOUND && name.equals("bukkit")) {
+                found = readString(in, "lastKnownName");
+            } else {
+                skip(in, type);
+            }
+        }
+        return found;
+    }
+
+    @Nullable
+    private static String readString(DataInputStream in, String key) throws IOException {
+        String found = null;
+        int type;
+        while ((type = in.readByte()) != TAG_END) {
+            String name = in.readUTF();
+            if (type == TAG_STRING && name.equals(key)) {
+                found = in.readUTF();
+            } else {
+                skip(in, type);
+            }
+        }
+        return found;
+    }
+
+    private static void skip(DataInputStream in, int type) throws IOException {
+        switch (type) {
+            case TAG_BYTE: skipFully(in, 1); break;
+            case TAG_SHORT: skipFully(in, 2); break;
+            case TAG_INT: case TAG_FLOAT: skipFully(in, 4); break;
+            case TAG_LONG: case TAG_DOUBLE: skipFully(in, 8); break;
+            case TAG_BYTE_ARRAY: skipFully(in, in.readInt()); break;
+            case TAG_STRING: skipFully(in, in.readUnsignedShort()); break;
+            case TAG_INT_ARRAY: skipFully(in, in.readInt() * 4L); break;
+            case TAG_LONG_ARRAY: skipFully(in, in.readInt() * 8L); break;
+            case TAG_LIST:
+                int itemType = in.readByte();
+                int length = in.readInt();
+                for (int i = 0; i < length; i++) {
+                    skip(in, itemType);
+                }
+                break;
+            case TAG_COMPOUND:
+                int childType;
+                while ((childType = in.readByte()) != TAG_END) {
+                    in.readUTF();
+                    skip(in, childType);
+                }
+                break;
+            default:
+                throw new IOException("Unknown NBT tag type " + type);
+        }
+    }
+
+    private static void skipFully(DataInputStream in, long count) throws IOException {
+        while (count > 0) {
+            long skipped = in.skip(count);
+            if (skipped <= 0) {
+                in.readByte();
+                skipped = 1;
+            }
+            count -= skipped;
+        }
+    }
+
+}
@@ -0,0 +1,195 @@
+/*
+ * Six2Five
+ * Copyright (C) sk89q <http://www.sk89q.com>
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.sk89q.worldguard.six2five;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Closer;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import javax.annotation.Nullable;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Makes HTTP requests on a small pool of threads and returns their
+ * responses as futures.
+ *
+ * <p>Response bodies are always read to the end and connections are
+ * never forcibly closed, which lets the JDK keep connections to the same
+ * host alive and reuse them instead of doing a new TLS handshake for
+ * every request.</p>
+ */
+public class PooledHttpClient implements Closeable {
+
+    private static final int CONNECT_TIMEOUT = 10000;
+    private static final int READ_TIMEOUT = 10000;
+    private static final Metrics.Counter requestCounter = Metrics.counter("http.requests");
+    private static final Metrics.Counter errorCounter = Metrics.counter("http.errors");
+    private static final Metrics.Timer latencyTimer = Metrics.timer("http.latency");
+
+    private final ListeningExecutorService executor;
+    @Nullable
+    private final AdaptiveRateLimiter rateLimiter;
+
+    /**
+     * Create a new client.
+     *
+     * @param threadCount the number of requests that may be in flight at once
+     * @param rateLimiter a limiter that every request has to acquire first, or null
+     */
+    public PooledHttpClient(int threadCount, @Nullable AdaptiveRateLimiter rateLimiter) {
+        checkArgument(threadCount > 0, "threadCount must be > 0");
+        this.executor = MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(threadCount,
+                new ThreadFactoryBuilder().setNameFormat("six2five-http-%d").setDaemon(true).build()));
+        this.rateLimiter = rateLimiter;
+    }
+
+    /**
+     * Send a GET request.
+     *
+     * @param url the URL
+     * @return a future that completes with the response
+     */
+    public ListenableFuture<Response> get(URL url) {
+        checkNotNull(url);
+        return submit(url, null, null);
+    }
+
+    /**
+     * Send a POST request.
+     *
+     * @param url the URL
+     * @param contentType the type of the body
+     * @param body the body, which is sent as UTF-8
+     * @return a future that completes with the response
+     */
+    public ListenableFuture<Response> post(URL url, String contentType, String body) {
+        checkNotNull(url);
+        checkNotNull(contentType);
+        checkNotNull(body);
+        return submit(url, contentType, body.getBytes(Charsets.UTF_8));
+    }
+
+    private ListenableFuture<Response> submit(final URL url, @Nullable final String contentType, @Nullable final byte[] body) {
+        return executor.submit(new Callable<Response>() {
+            @Override
+            public Response call() throws Exception {
+                if (rateLimiter != null) {
+                    rateLimiter.acquire();
+                }
+                requestCounter.increment();
+                long start = latencyTimer.start();
+                try {
+                    return execute(url, contentType, body);
+                } catch (IOException e) {
+                    errorCounter.increment();
+                    throw e;
+                } finally {
+                    latencyTimer.stop(start);
+                }
+            }
+        });
+    }
+
+    private static Response execute(URL url, @Nullable String contentType, @Nullable byte[] requestBody) throws IOException {
+        HttpURLConnection conn = (HttpURLConnection) url.openConnection();
+        conn.setConnectTimeout(CONNECT_TIMEOUT);
+        conn.setReadTimeout(READ_TIMEOUT);
+
+        if (requestBody != null) {
+            conn.setRequestMethod("POST");
+            conn.setRequestProperty("Content-Type", contentType);
+            conn.setDoOutput(true);
+            conn.setFixedLengthStreamingMode(requestBody.length);
+            Closer closer = Closer.create();
+            try {
+                OutputStream out = closer.register(conn.getOutputStream());
+                out.write(requestBody);
+            } finally {
+                closer.close();
+            }
+        }
+
+        int code = conn.getResponseCode();
+        InputStream in = code >= 400 ? conn.getErrorStream() : conn.getInputStream();
+        byte[] body = new byte[0];
+
+        if (in != null) {
+            // Reading to the end and closing (rather than disconnecting)
+            // returns the connection to the keep-alive cache
+            Closer closer = Closer.create();
+            try {
+                closer.register(in);
+                body = ByteStreams.toByteArray(in);
+            } finally {
+                closer.close();
+            }
+        }
+
+        return new Response(code, new String(body, Charsets.UTF_8), conn.getHeaderField("Retry-After"));
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * A response to a request.
+     */
+    public static class Response {
+        private final int code;
+        private final String body;
+        @Nullable
+        private final String retryAfter;
+
+        Response(int code, String body, @Nullable String retryAfter) {
+            this.code = code;
+            this.body = body;
+            this.retryAfter = retryAfter;
+        }
+
+        public int getCode() {
+            return code;
+        }
+
+        public String getBody() {
+            return body;
+        }
+
+        @Nullable
+        public String getRetryAfter() {
+            return retryAfter;
+        }
+    }
+
+}
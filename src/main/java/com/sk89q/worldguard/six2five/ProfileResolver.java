@@ -0,0 +1,312 @@
+/*
+ * Six2Five
+ * Copyright (C) sk89q <http://www.sk89q.com>
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.sk89q.worldguard.six2five;
+
+import com.google.common.collect.Iterables;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.sk89q.squirrelid.util.UUIDs;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONValue;
+
+import javax.annotation.Nullable;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+
+/**
+ * Looks up the UUIDs of names from Mojang's bulk profiles endpoint, which
+ * takes up to {@link #BATCH_SIZE} names per request.
+ *
+ * <p>Names that cannot belong to an account are never sent, because one
+ * of them makes Mojang reject the whole request.</p>
+ */
+public class ProfileResolver implements ReportingUniqueIdSource, Closeable {
+
+    private static final Logger log = Logger.getLogger(ProfileResolver.class.getCanonicalName());
+    private static final URL PROFILES_URL;
+    static final int BATCH_SIZE = 100;
+    private static final int TRY_COUNT = 5;
+    private static final int STARTING_RETRY_DELAY = 1000;
+    private static final Pattern VALID_NAME = Pattern.compile("[A-Za-z0-9_]{1,16}");
+    private static final Metrics.Counter rateLimitedCounter = Metrics.counter("http.429");
+    private static final Metrics.Counter retryCounter = Metrics.counter("http.retries");
+    private static final Metrics.Counter notFoundCounter = Metrics.counter("uniqueIds.notFound");
+    private static final Metrics.Counter failedCounter = Metrics.counter("uniqueIds.failed");
+
+    static {
+        try {
+            PROFILES_URL = new URL("https://api.mojang.com/profiles/minecraft");
+        } catch (MalformedURLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private final ConcurrentMap<String, UUID> uniqueIds = new ConcurrentHashMap<String, UUID>();
+    private final Set<String> notFound = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private final double requestsPerSecond;
+    private final int threadCount;
+    private AdaptiveRateLimiter rateLimiter;
+    private PooledHttpClient httpClient;
+    @Nullable
+    private final PersistentNameCache cache;
+
+    public ProfileResolver() {
+        this(null, LastNameResolver.FETCHES_PER_SECOND, LastNameResolver.DEFAULT_THREAD_COUNT);
+    }
+
+    /**
+     * Create a new resolver.
+     *
+     * @param cache a cache to store the names that are found in, or null
+     * @param requestsPerSecond the highest rate to make requests at
+     * @param threadCount the number of requests that may be in flight at once
+     */
+    public ProfileResolver(@Nullable PersistentNameCache cache, double requestsPerSecond, int threadCount) {
+        this.cache = cache;
+        this.requestsPerSecond = requestsPerSecond;
+        this.threadCount = threadCount;
+    }
+
+    /**
+     * Get the HTTP client, creating it and the rate limiter on first use.
+     * Runs where every UUID is found locally never start either.
+     *
+     * @return the HTTP client
+     */
+    private synchronized PooledHttpClient getHttpClient() {
+        if (httpClient == null) {
+            rateLimiter = new AdaptiveRateLimiter(requestsPerSecond);
+            httpClient = new PooledHttpClient(threadCount, rateLimiter);
+        }
+        return httpClient;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>The names are split into requests of {@link #BATCH_SIZE} here, and
+     * every request is sent before the first answer is waited for.</p>
+     */
+    @Override
+    public int getIdealBatchSize() {
+        return Integer.MAX_VALUE;
+    }
+
+    @Override
+    public Map<String, UUID> resolveUniqueIds(Collection<String> names) throws IOException {
+        return resolveUniqueIds(names, null);
+    }
+
+    @Override
+    public Map<String, UUID> resolveUniqueIds(Collection<String> names, @Nullable ProgressReporter progress) throws IOException {
+        Map<String, UUID> found = new HashMap<String, UUID>();
+        List<String> wanted = new ArrayList<String>();
+        for (String name : names) {
+            @Nullable UUID uuid = uniqueIds.get(name);
+            if (uuid != null) {
+                found.put(name, uuid);
+            } else if (notFound.contains(name)) {
+                continue;
+            } else if (!VALID_NAME.matcher(name).matches()) {
+                log.log(Level.WARNING, "Not looking up a UUID for " + name + " because it is not a valid name");
+                notFoundCounter.increment();
+                notFound.add(name);
+            } else {
+                wanted.add(name);
+            }
+        }
+        if (progress != null) {
+            progress.add(names.size() - wanted.size());
+        }
+
+        // Every batch is sent before any response is waited on, so that the
+        // requests are only held back by the rate limiter
+        List<List<String>> batches = new ArrayList<List<String>>();
+        List<ListenableFuture<PooledHttpClient.Response>> futures = new ArrayList<ListenableFuture<PooledHttpClient.Response>>();
+        for (List<String> batch : Iterables.partition(wanted, Math.max(1, Math.min(BATCH_SIZE, wanted.size())))) {
+            batches.add(batch);
+            futures.add(post(batch));
+        }
+
+        try {
+            for (int i = 0; i < batches.size(); i++) {
+                found.putAll(fetch(batches.get(i), futures.get(i)));
+                if (progress != null) {
+                    progress.add(batches.get(i).size());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while resolving UUIDs");
+        }
+
+        return found;
+    }
+
+    private ListenableFuture<PooledHttpClient.Response> post(List<String> batch) {
+        return getHttpClient().post(PROFILES_URL, "application/json", JSONArray.toJSONString(batch));
+    }
+
+    private Map<String, UUID> fetch(List<String> batch, ListenableFuture<PooledHttpClient.Response> future) throws InterruptedException {
+        int retryDelay = STARTING_RETRY_DELAY;
+
+        for (int left = TRY_COUNT; ; left--) {
+            Throwable error;
+
+            try {
+                PooledHttpClient.Response response = future.get();
+                switch (response.getCode()) {
+                    case 200:
+                        rateLimiter.onSuccess();
+                        return parseProfiles(batch, JSONValue.parse(response.getBody()));
+                    case 429:
+                        // The limiter slows every request down, so there is no need to wait here
+                        rateLimitedCounter.increment();
+                        rateLimiter.onRateLimited(LastNameResolver.parseRetryAfter(response.getRetryAfter()));
+                        // Being rate limited says nothing about the names, so it does not use up a try
+                        log.log(Level.FINE, "Rate limit hit while looking up UUIDs; trying again");
+                        retryCounter.increment();
+                        left++;
+                        future = post(batch);
+                        continue;
+                    default:
+                        if (response.getCode() >= 400 && response.getCode() < 500) {
+                            // The same request would be rejected again, so it is not retried
+                            return rejected(batch, response.getCode());
+                        }
+                        error = new IOException("Got " + response.getCode() + " as a response code");
+                }
+            } catch (ExecutionException e) {
+                error = e.getCause();
+            }
+
+            log.log(Level.WARNING, "HTTP request for UUIDs failed", error);
+
+            if (left <= 1) {
+                log.log(Level.WARNING, "Failed to get the UUIDs of " + batch.size() + " name(s) because the HTTP request failed", error);
+                failedCounter.add(batch.size());
+                return new HashMap<String, UUID>();
+            }
+
+            retryCounter.increment();
+            Thread.sleep(retryDelay);
+            retryDelay *= 2;
+            future = post(batch);
+        }
+    }
+
+    /**
+     * Handle a batch that Mojang rejected with a 4xx response code.
+     *
+     * <p>A 400 for more than one name is sent again as two halves, so that
+     * only the names that Mojang does not accept are left without a UUID.</p>
+     *
+     * @param batch the names
+     * @param code the response code
+     * @return a map of the names that a UUID was found for
+     * @throws InterruptedException thrown if interrupted while waiting
+     */
+    private Map<String, UUID> rejected(List<String> batch, int code) throws InterruptedException {
+        if (code == 400 && batch.size() > 1) {
+            List<String> first = batch.subList(0, batch.size() / 2);
+            List<String> second = batch.subList(batch.size() / 2, batch.size());
+            ListenableFuture<PooledHttpClient.Response> secondFuture = post(second);
+            Map<String, UUID> found = fetch(first, post(first));
+            found.putAll(fetch(second, secondFuture));
+            return found;
+        }
+
+        if (code == 400) {
+            log.log(Level.WARNING, "Failed to get a UUID for " + batch.get(0) + " because Mojang rejected the name");
+            notFoundCounter.increment();
+            notFound.add(batch.get(0));
+        } else {
+            log.log(Level.WARNING, "Failed to get the UUIDs of " + batch.size() + " name(s) because Mojang responded with " + code);
+            failedCounter.add(batch.size());
+        }
+        return new HashMap<String, UUID>();
+    }
+
+    private Map<String, UUID> parseProfiles(List<String> batch, @Nullable Object object) {
+        Map<String, UUID> found = new HashMap<String, UUID>();
+
+        if (object instanceof List) {
+            for (Object profile : (List<?>) object) {
+                if (!(profile instanceof Map)) continue;
+                @Nullable Object rawUuid = ((Map<?, ?>) profile).get("id");
+                @Nullable Object name = ((Map<?, ?>) profile).get("name");
+                if (rawUuid == null || name == null) continue;
+
+                UUID uuid;
+                try {
+                    uuid = UUID.fromString(UUIDs.addDashes(String.valueOf(rawUuid)));
+                } catch (IllegalArgumentException e) {
+                    log.log(Level.WARNING, "Mojang returned an invalid UUID: " + rawUuid);
+                    continue;
+                }
+
+                String key = String.valueOf(name).toLowerCase(Locale.ROOT);
+                found.put(key, uuid);
+                uniqueIds.put(key, uuid);
+                if (cache != null) {
+                    cache.put(uuid, String.valueOf(name));
+                }
+            }
+        }
+
+        for (String name : batch) {
+            if (!found.containsKey(name)) {
+                log.log(Level.WARNING, "Failed to get a UUID for " + name + " because Mojang did not return a profile for it");
+                notFoundCounter.increment();
+                notFound.add(name);
+            }
+        }
+
+        return found;
+    }
+
+    /**
+     * Stop the HTTP client's threads, if it was ever started.
+     */
+    @Override
+    public synchronized void close() {
+        if (httpClient != null) {
+            httpClient.close();
+            httpClient = null;
+        }
+    }
+
+}
@@ -0,0 +1,142 @@
+/*
+ * Six2Five
+ * Copyright (C) sk89q <http://www.sk89q.com>
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.sk89q.worldguard.six2five;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Counts progress through a task and logs a summary line with the rate and
+ * the estimated time left at most once per interval, however often
+ * progress is made.
+ *
+ * <p>Progress may be reported from any thread. Between summary lines,
+ * recording progress costs an atomic increment and a clock read.</p>
+ */
+public class ProgressReporter {
+
+    private static final Logger log = Logger.getLogger(ProgressReporter.class.getCanonicalName());
+    static final long DEFAULT_INTERVAL = TimeUnit.SECONDS.toMillis(5);
+
+    private final String task;
+    private final long total;
+    private final long interval;
+    private final long startTime = System.currentTimeMillis();
+    private final AtomicLong done = new AtomicLong();
+    private final AtomicLong nextReport;
+
+    /**
+     * Create a new reporter that logs every {@link #DEFAULT_INTERVAL}
+     * milliseconds.
+     *
+     * @param task what is being done, such as "Converting regions"
+     * @param total the number of items to process
+     */
+    public ProgressReporter(String task, long total) {
+        this(task, total, DEFAULT_INTERVAL);
+    }
+
+    /**
+     * Create a new reporter.
+     *
+     * @param task what is being done, such as "Converting regions"
+     * @param total the number of items to process
+     * @param interval the least time between summary lines, in milliseconds
+     */
+    public ProgressReporter(String task, long total, long interval) {
+        checkNotNull(task);
+        checkArgument(total >= 0, "total must be >= 0");
+        checkArgument(interval > 0, "interval must be > 0");
+        this.task = task;
+        this.total = total;
+        this.interval = interval;
+        this.nextReport = new AtomicLong(startTime + interval);
+    }
+
+    /**
+     * Record that one more item has been processed.
+     */
+    public void increment() {
+        add(1);
+    }
+
+    /**
+     * Record that more items have been processed.
+     *
+     * @param count the number of items
+     */
+    public void add(long count) {
+        long current = done.addAndGet(count);
+        long now = System.currentTimeMillis();
+        long next = nextReport.get();
+        // Only the thread that moves the deadline forward logs the line
+        if (now >= next && nextReport.compareAndSet(next, now + interval)) {
+            log.info(format(current, now));
+        }
+    }
+
+    /**
+     * Log a final summary line.
+     */
+    public void finish() {
+        log.info(format(done.get(), System.currentTimeMillis()));
+    }
+
+    private String format(long current, long now) {
+        long elapsed = now - startTime;
+        double rate = current / (Math.max(1, elapsed) / 1000.0);
+        StringBuilder builder = new StringBuilder();
+        builder.append(task).append(": ").append(current).append('/').append(total);
+        if (total > 0) {
+            builder.append(" (").append(current * 100 / total).append("%)");
+        }
+        builder.append(", ").append(String.format(Locale.ROOT, "%.1f", rate)).append("/s");
+        if (current < total && rate > 0) {
+            builder.append(", about ").append(formatDuration((long) Math.ceil((total - current) / rate))).append(" left");
+        } else if (current >= total) {
+            builder.append(", took ").append(elapsed < 1000 ? elapsed + "ms" : formatDuration(Math.round(elapsed / 1000.0)));
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Format a number of seconds as hours and minutes, minutes and seconds
+     * or seconds, depending on how long it is.
+     *
+     * @param seconds the number of seconds
+     * @return the formatted duration
+     */
+    static String formatDuration(long seconds) {
+        long hours = TimeUnit.SECONDS.toHours(seconds);
+        long minutes = TimeUnit.SECONDS.toMinutes(seconds) % 60;
+        if (hours > 0) {
+            return hours + "h " + minutes + "m";
+        } else if (minutes > 0) {
+            return minutes + "m " + (seconds % 60) + "s";
+        } else {
+            return seconds + "s";
+        }
+    }
+
+}
@@ -0,0 +1,344 @@
+/*
+ * Six2Five
+ * Copyright (C) sk89q <http://www.sk89q.com>
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.sk89q.worldguard.six2five;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Closer;
+import com.sk89q.worldguard.six2five.util.SimpleLogFormatter;
+import joptsimple.OptionParser;
+import joptsimple.OptionSet;
+import joptsimple.OptionSpec;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+import java.util.logging.Logger;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Writes synthetic WorldGuard 6 regions files for load testing, so that
+ * real files with player data do not have to be copied around.
+ *
+ * <p>Regions are cuboids or polygons with a priority, a few flags and
+ * sometimes a parent. Their owners and members have a configurable
+ * average number of {@code unique-ids} and {@code players} entries, drawn
+ * from a pool of players where {@link #setSkew(double) skew} controls how
+ * often the same few players come up. Regions are written one at a time
+ * and players are derived from their index in the pool, so memory use
+ * does not grow with the size of the file.</p>
+ *
+ * <p>The same seed and settings always produce the same file.</p>
+ */
+public class RegionsGenerator {
+
+    private static final Logger log = Logger.getLogger(RegionsGenerator.class.getCanonicalName());
+    private static final int PROGRESS_INTERVAL = 100000;
+    private static final String[] FLAGS = {"pvp: deny", "build: allow", "mob-spawning: deny", "greeting: Welcome", "use: allow"};
+
+    private int regionCount = 1000;
+    private int ownerUniqueIds = 2;
+    private int ownerPlayers = 0;
+    private int memberUniqueIds = 4;
+    private int memberPlayers = 0;
+    private int playerCount = 10000;
+    private double skew = 1;
+    private double polygonRatio = 0.2;
+    private double parentRatio = 0.1;
+    private long seed = 0;
+
+    public int getRegionCount() {
+        return regionCount;
+    }
+
+    public void setRegionCount(int regionCount) {
+        checkArgument(regionCount >= 0, "regionCount must be >= 0");
+        this.regionCount = regionCount;
+    }
+
+    /**
+     * Set the average number of UUIDs and names in the owners of each region.
+     *
+     * @param uniqueIds the average number of {@code unique-ids} entries
+     * @param players the average number of {@code players} entries
+     */
+    public void setOwners(int uniqueIds, int players) {
+        checkArgument(uniqueIds >= 0 && players >= 0, "counts must be >= 0");
+        this.ownerUniqueIds = uniqueIds;
+        this.ownerPlayers = players;
+    }
+
+    /**
+     * Set the average number of UUIDs and names in the members of each region.
+     *
+     * @param uniqueIds the average number of {@code unique-ids} entries
+     * @param players the average number of {@code players} entries
+     */
+    public void setMembers(int uniqueIds, int players) {
+        checkArgument(uniqueIds >= 0 && players >= 0, "counts must be >= 0");
+        this.memberUniqueIds = uniqueIds;
+        this.memberPlayers = players;
+    }
+
+    public int getPlayerCount() {
+        return playerCount;
+    }
+
+    /**
+     * Set the number of distinct players that owners and members are
+     * drawn from.
+     *
+     * @param playerCount the number of players
+     */
+    public void setPlayerCount(int playerCount) {
+        checkArgument(playerCount > 0, "playerCount must be > 0");
+        this.playerCount = playerCount;
+    }
+
+    public double getSkew() {
+        return skew;
+    }
+
+    /**
+     * Set how unevenly players are drawn from the pool. At 0 every player
+     * is equally likely; higher values make the first players of the pool
+     * show up in more and more regions.
+     *
+     * @param skew the skew, 0 or more
+     */
+    public void setSkew(double skew) {
+        checkArgument(skew >= 0, "skew must be >= 0");
+        this.skew = skew;
+    }
+
+    /**
+     * Set the fraction of regions that are polygons rather than cuboids.
+     *
+     * @param polygonRatio a value between 0 and 1
+     */
+    public void setPolygonRatio(double polygonRatio) {
+        checkArgument(polygonRatio >= 0 && polygonRatio <= 1, "polygonRatio must be between 0 and 1");
+        this.polygonRatio = polygonRatio;
+    }
+
+    /**
+     * Set the fraction of regions that have a parent.
+     *
+     * @param parentRatio a value between 0 and 1
+     */
+    public void setParentRatio(double parentRatio) {
+        checkArgument(parentRatio >= 0 && parentRatio <= 1, "parentRatio must be between 0 and 1");
+        this.parentRatio = parentRatio;
+    }
+
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+
+    /**
+     * Get the UUID of the player at the given index of the pool.
+     *
+     * @param index the index
+     * @return the UUID
+     */
+    public UUID getUniqueId(int index) {
+        long most = mix(seed + index);
+        long least = mix(~(seed + index));
+        // Make it a valid version 4 UUID like those Mojang hands out
+        return new UUID((most & ~0xF000L) | 0x4000L, (least & 0x3FFFFFFFFFFFFFFFL) | 0x8000000000000000L);
+    }
+
+    /**
+     * Get the name of the player at the given index of the pool.
+     *
+     * @param index the index
+     * @return the name
+     */
+    public String getName(int index) {
+        return "Player" + index;
+    }
+
+    /**
+     * Write a regions file to the given file.
+     *
+     * @param file the file
+     * @throws IOException thrown on I/O error
+     */
+    public void generate(File file) throws IOException {
+        checkNotNull(file);
+        Closer closer = Closer.create();
+        try {
+            Writer writer = closer.register(new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), Charsets.UTF_8), 1 << 16));
+            generate(writer);
+        } catch (IOException e) {
+            throw closer.rethrow(e);
+        } finally {
+            closer.close();
+        }
+    }
+
+    /**
+     * Write a regions file to the given writer. The writer is not closed.
+     *
+     * @param writer the writer
+     * @throws IOException thrown on I/O error
+     */
+    public void generate(Writer writer) throws IOException {
+        checkNotNull(writer);
+        Random random = new Random(seed);
+        StringBuilder line = new StringBuilder(256);
+
+        writer.write("regions:\n");
+        for (int i = 0; i < regionCount; i++) {
+            writer.write("    region" + i + ":\n");
+
+            int x = random.nextInt(60000) - 30000;
+            int z = random.nextInt(60000) - 30000;
+            int size = 8 + random.nextInt(120);
+            if (random.nextDouble() < polygonRatio) {
+                writer.write("        type: poly2d\n");
+                writer.write("        min-y: 0\n");
+                writer.write("        max-y: 255\n");
+                line.setLength(0);
+                line.append("        points: [");
+                int pointCount = 3 + random.nextInt(6);
+                for (int p = 0; p < pointCount; p++) {
+                    double angle = 2 * Math.PI * p / pointCount;
+                    if (p > 0) line.append(", ");
+                    line.append("{x: ").append(x + (int) (Math.cos(angle) * size))
+                            .append(", z: ").append(z + (int) (Math.sin(angle) * size)).append('}');
+                }
+                line.append("]\n");
+                writer.write(line.toString());
+            } else {
+                writer.write("        type: cuboid\n");
+                writer.write("        min: {x: " + x + ".0, y: 0.0, z: " + z + ".0}\n");
+                writer.write("        max: {x: " + (x + size) + ".0, y: 255.0, z: " + (z + size) + ".0}\n");
+            }
+
+            writer.write("        priority: " + random.nextInt(10) + "\n");
+
+            line.setLength(0);
+            line.append("        flags: {");
+            int flagCount = random.nextInt(FLAGS.length + 1);
+            for (int f = 0; f < flagCount; f++) {
+                if (f > 0) line.append(", ");
+                line.append(FLAGS[f]);
+            }
+            line.append("}\n");
+            writer.write(line.toString());
+
+            if (i > 0 && random.nextDouble() < parentRatio) {
+                writer.write("        parent: region" + random.nextInt(i) + "\n");
+            }
+
+            writeDomain(writer, line, random, "owners", ownerUniqueIds, ownerPlayers);
+            writeDomain(writer, line, random, "members", memberUniqueIds, memberPlayers);
+
+            if ((i + 1) % PROGRESS_INTERVAL == 0) {
+                log.info("Generated " + (i + 1) + " of " + regionCount + " regions...");
+            }
+        }
+    }
+
+    private void writeDomain(Writer writer, StringBuilder line, Random random, String key, int uniqueIds, int players) throws IOException {
+        int uniqueIdCount = uniqueIds > 0 ? random.nextInt(2 * uniqueIds + 1) : 0;
+        int playerCount = players > 0 ? random.nextInt(2 * players + 1) : 0;
+        if (uniqueIdCount == 0 && playerCount == 0) {
+            writer.write("        " + key + ": {}\n");
+            return;
+        }
+
+        writer.write("        " + key + ":\n");
+        if (uniqueIdCount > 0) {
+            line.setLength(0);
+            line.append("            unique-ids: [");
+            for (int i = 0; i < uniqueIdCount; i++) {
+                if (i > 0) line.append(", ");
+                line.append(getUniqueId(nextPlayer(random)));
+            }
+            line.append("]\n");
+            writer.write(line.toString());
+        }
+        if (playerCount > 0) {
+            line.setLength(0);
+            line.append("            players: [");
+            for (int i = 0; i < playerCount; i++) {
+                if (i > 0) line.append(", ");
+                line.append(getName(nextPlayer(random)));
+            }
+            line.append("]\n");
+            writer.write(line.toString());
+        }
+    }
+
+    private int nextPlayer(Random random) {
+        // Raising a uniform value to a power above 1 bunches it up near 0
+        return Math.min(playerCount - 1, (int) (playerCount * Math.pow(random.nextDouble(), 1 + skew)));
+    }
+
+    private static long mix(long z) {
+        z = (z ^ (z >>> 33)) * 0xff51afd7ed558ccdL;
+        z = (z ^ (z >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        return z ^ (z >>> 33);
+    }
+
+    public static void main(String[] args) throws IOException {
+        SimpleLogFormatter.configureGlobalLogger();
+
+        OptionParser parser = new OptionParser("h");
+        OptionSpec<Integer> regionsOpt = parser.accepts("regions").withRequiredArg().ofType(Integer.class).defaultsTo(1000);
+        OptionSpec<Integer> ownersOpt = parser.accepts("owners").withRequiredArg().ofType(Integer.class).defaultsTo(2);
+        OptionSpec<Integer> ownerNamesOpt = parser.accepts("owner-names").withRequiredArg().ofType(Integer.class).defaultsTo(0);
+        OptionSpec<Integer> membersOpt = parser.accepts("members").withRequiredArg().ofType(Integer.class).defaultsTo(4);
+        OptionSpec<Integer> memberNamesOpt = parser.accepts("member-names").withRequiredArg().ofType(Integer.class).defaultsTo(0);
+        OptionSpec<Integer> playersOpt = parser.accepts("players").withRequiredArg().ofType(Integer.class).defaultsTo(10000);
+        OptionSpec<Double> skewOpt = parser.accepts("skew").withRequiredArg().ofType(Double.class).defaultsTo(1.0);
+        OptionSpec<Long> seedOpt = parser.accepts("seed").withRequiredArg().ofType(Long.class).defaultsTo(0L);
+        OptionSet options = parser.parse(args);
+
+        List<?> nonOptions = options.nonOptionArguments();
+
+        if (options.has("h") || nonOptions.size() != 1) {
+            System.err.println("usage: RegionsGenerator [-h] [--regions n] [--owners n] [--owner-names n] " +
+                    "[--members n] [--member-names n] [--players n] [--skew n] [--seed n] output.yml");
+            System.exit(1);
+        }
+
+        RegionsGenerator generator = new RegionsGenerator();
+        generator.setRegionCount(options.valueOf(regionsOpt));
+        generator.setOwners(options.valueOf(ownersOpt), options.valueOf(ownerNamesOpt));
+        generator.setMembers(options.valueOf(membersOpt), options.valueOf(memberNamesOpt));
+        generator.setPlayerCount(options.valueOf(playersOpt));
+        generator.setSkew(options.valueOf(skewOpt));
+        generator.setSeed(options.valueOf(seedOpt));
+
+        File file = new File(String.valueOf(nonOptions.get(0)));
+        generator.generate(file);
+        log.info("Wrote " + generator.getRegionCount() + " regions to " + file.getAbsolutePath());
+    }
+
+}
@@ -18,37 +18,227 @@
 
 package com.sk89q.worldguard.six2five;
 
+import com.google.common.collect.Lists;
 import com.google.common.io.Closer;
 import com.google.common.io.Files;
 import com.sk89q.squirrelid.util.UUIDs;
+import com.sk89q.worldguard.six2five.StreamingRegionsRewriter.RegionChunks;
 import org.yaml.snakeyaml.Yaml;
+import org.yaml.snakeyaml.error.YAMLException;
+import org.yaml.snakeyaml.reader.UnicodeReader;
 
 import javax.annotation.Nullable;
 import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
-import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.Reader;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Iterator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
 @SuppressWarnings("unchecked")
 public class RegionsProcessor {
 
     private static final Logger log = Logger.getLogger(RegionsProcessor.class.getCanonicalName());
-    private final LastNameResolver resolver = new LastNameResolver();
+    private static final Metrics.Timer parseTimer = Metrics.timer("phase.parse");
+    private static final Metrics.Timer scanTimer = Metrics.timer("phase.scan");
+    private static final Metrics.Timer resolveTimer = Metrics.timer("phase.resolve");
+    private static final Metrics.Timer convertTimer = Metrics.timer("phase.convert");
+    private static final Metrics.Timer dumpTimer = Metrics.timer("phase.dump");
+    private static final Metrics.Timer rewriteTimer = Metrics.timer("phase.rewrite");
+    private static final Metrics.Counter regionCounter = Metrics.counter("regions");
+    private static final Metrics.Counter convertedCounter = Metrics.counter("entries.converted");
+    private static final int REGION_CHUNK_SIZE = 1024;
+    private final NameSource source;
+    private final int parallelism;
+    private ConversionStats stats = new ConversionStats();
+
+    public RegionsProcessor() {
+        this(new LastNameResolver());
+    }
 
+    /**
+     * Create a new processor.
+     *
+     * @param source the source to look up names from
+     */
+    public RegionsProcessor(NameSource source) {
+        this(source, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Create a new processor.
+     *
+     * <p>Once names have been looked up, regions are converted in chunks on
+     * up to {@code parallelism} threads, both when a file is written and
+     * when a loaded tree is converted. The output is the same as with
+     * one thread.</p>
+     *
+     * @param source the source to look up names from
+     * @param parallelism the number of threads to convert regions on
+     */
+    public RegionsProcessor(NameSource source, int parallelism) {
+        checkNotNull(source);
+        checkArgument(parallelism > 0, "parallelism must be > 0");
+        this.source = source;
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Downgrade the given file without loading the whole document into
+     * memory.
+     *
+     * <p>The file is read twice: once to find the UUIDs to resolve and once
+     * more (from the backup) to write the downgraded copy.</p>
+     *
+     * @param file the regions file
+     * @return true if the file was downgraded
+     * @throws IOException thrown on I/O error
+     */
     public boolean downgrade(File file) throws IOException {
+        @Nullable ConversionJournal journal = openJournal(file);
+        if (journal == null) return false;
+        try {
+            return downgrade(file, journal);
+        } finally {
+            journal.close();
+        }
+    }
+
+    private boolean downgrade(File file, ConversionJournal journal) throws IOException {
+        @Nullable File backupFile = journal.getBackupFile();
+        Set<UUID> uniqueIds = new LinkedHashSet<UUID>();
+        @Nullable RegionChunks chunks = parallelism > 1 ? new RegionChunks(REGION_CHUNK_SIZE) : null;
+        stats = new ConversionStats();
+
+        Closer closer = Closer.create();
+        try {
+            Reader reader = closer.register(openReader(backupFile != null ? backupFile : file));
+            log.info("Scanning for UUIDs...");
+            long start = scanTimer.start();
+            stats.setRegionCount(StreamingRegionsRewriter.collectUniqueIds(reader, uniqueIds, chunks));
+            scanTimer.stop(start);
+            regionCounter.add(stats.getRegionCount());
+        } catch (FileNotFoundException e) {
+            log.log(Level.WARNING, "The file '" + file.getAbsolutePath() + "' does not exist");
+            return false;
+        } catch (IOException e) {
+            log.log(Level.WARNING, "Failed to open file for reading", e);
+            return false;
+        } finally {
+            closer.close();
+        }
+
+        log.info("Converting UUIDs to names...");
+        Map<UUID, String> names = resolveAll(uniqueIds);
+
+        try {
+            if (backupFile == null) {
+                backupFile = createBackup(file);
+                journal.recordBackup(backupFile);
+            }
+
+            long start = rewriteTimer.start();
+            int converted = -1;
+            if (chunks != null && chunks.isSplittable()) {
+                try {
+                    converted = splice(file, backupFile, names, chunks);
+                } catch (YAMLException e) {
+                    log.log(Level.WARNING, "Failed to split " + file.getAbsolutePath() + " into chunks, so it will be converted on one thread", e);
+                }
+            }
+            if (converted < 0) {
+                converted = splice(file, backupFile, names);
+            }
+            rewriteTimer.stop(start);
+            stats.addConverted(converted);
+            convertedCounter.add(converted);
+        } catch (IOException e) {
+            log.log(Level.WARNING, "Failed to open file for writing", e);
+            return false;
+        }
+
+        journal.complete();
+        log.info("UUID -> name conversion is complete");
+
+        return true;
+    }
+
+    private int splice(File file, File backupFile, Map<UUID, String> names) throws IOException {
+        Closer closer = Closer.create();
+        try {
+            Reader reader = closer.register(openReader(backupFile));
+            Reader source = closer.register(openReader(backupFile));
+            AtomicFileOutput output = closer.register(new AtomicFileOutput(file));
+            ProgressReporter progress = new ProgressReporter("Converting regions", stats.getRegionCount());
+            int converted = StreamingRegionsRewriter.splice(reader, source, output.getWriter(), names, progress);
+            progress.finish();
+            output.commit();
+            return converted;
+        } catch (Throwable e) {
+            throw closer.rethrow(e);
+        } finally {
+            closer.close();
+        }
+    }
+
+    /**
+     * Write the downgraded copy of the backup, splicing its chunks of
+     * regions on {@link #parallelism} threads.
+     */
+    private int splice(File file, File backupFile, Map<UUID, String> names, RegionChunks chunks) throws IOException {
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        Closer closer = Closer.create();
+        try {
+            Reader source = closer.register(openReader(backupFile));
+            AtomicFileOutput output = closer.register(new AtomicFileOutput(file));
+            ProgressReporter progress = new ProgressReporter("Converting regions", stats.getRegionCount());
+            int converted = StreamingRegionsRewriter.splice(source, output.getWriter(), names, chunks, pool, parallelism * 2, progress);
+            progress.finish();
+            output.commit();
+            return converted;
+        } catch (Throwable e) {
+            throw closer.rethrow(e);
+        } finally {
+            try {
+                closer.close();
+            } finally {
+                pool.shutdownNow();
+            }
+        }
+    }
+
+    /**
+     * Upgrade the given file, replacing the names of players with their
+     * UUIDs for servers moving from WorldGuard 5 to 6.
+     *
+     * @param file the regions file
+     * @param uniqueIdSource the source to look up UUIDs from
+     * @return true if the file was upgraded
+     * @throws IOException thrown on I/O error
+     */
+    public boolean upgrade(File file, UniqueIdSource uniqueIdSource) throws IOException {
+        checkNotNull(uniqueIdSource);
         Yaml yaml = new Yaml();
         Map<Object, Object> data;
 
@@ -56,10 +246,12 @@ public class RegionsProcessor {
         try {
             InputStream is = closer.register(new FileInputStream(file));
             BufferedInputStream bis = closer.register(new BufferedInputStream(is));
+            long start = parseTimer.start();
             data = (Map<Object, Object>) yaml.load(bis);
+            parseTimer.stop(start);
 
-            log.info("Converting UUIDs to names...");
-            downgrade(data);
+            log.info("Converting names to UUIDs...");
+            upgrade(data, uniqueIdSource);
         } catch (FileNotFoundException e) {
             log.log(Level.WARNING, "The file '" + file.getAbsolutePath() + "' does not exist");
             return false;
@@ -72,20 +264,13 @@ public class RegionsProcessor {
 
         closer = Closer.create();
         try {
-            File backupFile = new File(
-                    file.getParentFile(),
-                    Files.getNameWithoutExtension(file.getName())
-                            + "-" + System.currentTimeMillis()
-                            + "." + Files.getFileExtension(file.getName()) + ".backup");
-
-            if (!file.renameTo(backupFile)) {
-                throw new IOException("Failed to rename old file to " + backupFile.getAbsolutePath());
-            }
-
-            log.info("Moved regions file to the backup file at " + backupFile.getAbsolutePath());
+            createBackup(file);
 
-            FileWriter fw = closer.register(new FileWriter(file));
-            yaml.dump(data, fw);
+            long start = dumpTimer.start();
+            AtomicFileOutput output = closer.register(new AtomicFileOutput(file));
+            yaml.dump(data, output.getWriter());
+            output.commit();
+            dumpTimer.stop(start);
         } catch (IOException e) {
             log.log(Level.WARNING, "Failed to open file for writing", e);
             return false;
@@ -93,68 +278,410 @@ public class RegionsProcessor {
             closer.close();
         }
 
-        log.info("UUID -> name conversion is complete");
+        log.info("Name -> UUID conversion is complete");
 
         return true;
     }
 
+    /**
+     * Open the journal of the given file, logging a warning if the file
+     * does not exist or the journal cannot be opened.
+     *
+     * @param file the regions file
+     * @return the journal, or null
+     */
+    @Nullable
+    private static ConversionJournal openJournal(File file) {
+        if (!file.exists() && !ConversionJournal.getJournalFile(file).exists()) {
+            log.log(Level.WARNING, "The file '" + file.getAbsolutePath() + "' does not exist");
+            return null;
+        }
+
+        try {
+            return ConversionJournal.open(file);
+        } catch (IOException e) {
+            log.log(Level.WARNING, "Failed to open the journal of " + file.getAbsolutePath(), e);
+            return null;
+        }
+    }
+
+    static Reader openReader(File file) throws IOException {
+        return new UnicodeReader(new BufferedInputStream(new FileInputStream(file)));
+    }
+
+    /**
+     * Make a backup of the given file next to it, leaving the file in place.
+     *
+     * <p>The backup is a hard link where the file system supports them, so
+     * nothing is copied. The output is later moved over the original
+     * rather than written into it, so the backup keeps the old contents.
+     * Otherwise the file is copied with {@link FileChannel#transferTo}
+     * and forced to disk.</p>
+     *
+     * @param file the file
+     * @return the backup file
+     * @throws IOException thrown if the backup could not be made
+     */
+    private static File createBackup(File file) throws IOException {
+        File backupFile = new File(
+                file.getParentFile(),
+                Files.getNameWithoutExtension(file.getName())
+                        + "-" + System.currentTimeMillis()
+                        + "." + Files.getFileExtension(file.getName()) + ".backup");
+
+        try {
+            java.nio.file.Files.createLink(backupFile.toPath(), file.toPath());
+        } catch (UnsupportedOperationException e) {
+            copy(file, backupFile);
+        } catch (IOException e) {
+            log.log(Level.FINE, "Failed to hard link the backup, so copying it instead", e);
+            copy(file, backupFile);
+        }
+
+        log.info("Backed up the regions file to " + backupFile.getAbsolutePath());
+
+        return backupFile;
+    }
+
+    private static void copy(File from, File to) throws IOException {
+        Closer closer = Closer.create();
+        try {
+            FileChannel in = closer.register(FileChannel.open(from.toPath(), StandardOpenOption.READ));
+            FileChannel out = closer.register(FileChannel.open(to.toPath(), StandardOpenOption.WRITE, StandardOpenOption.CREATE_NEW));
+            long size = in.size();
+            long position = 0;
+            while (position < size) {
+                position += in.transferTo(position, size - position, out);
+            }
+            out.force(true);
+        } catch (IOException e) {
+            throw closer.rethrow(e);
+        } finally {
+            closer.close();
+        }
+    }
+
     public void downgrade(Map<Object, Object> data) throws IOException {
-        processRegions((Map<Object, Object>) data.get("regions"));
+        Map<Object, Object> regions = (Map<Object, Object>) data.get("regions");
+        stats = new ConversionStats();
+        stats.setRegionCount(regions != null ? regions.size() : 0);
+        regionCounter.add(stats.getRegionCount());
+        Set<UUID> uniqueIds = collectUniqueIds(regions);
+        Map<UUID, String> names = resolveAll(uniqueIds);
+        long start = convertTimer.start();
+        processRegions(regions, names);
+        convertTimer.stop(start);
     }
 
-    private void processRegions(@Nullable Map<Object, Object> regions) {
+    /**
+     * Replace the names of players in the given regions data with
+     * their UUIDs.
+     *
+     * <p>Names that no UUID is found for are left in place.</p>
+     *
+     * @param data the regions data
+     * @param uniqueIdSource the source to look up UUIDs from
+     * @throws IOException thrown if the lookup could not be completed
+     */
+    public void upgrade(Map<Object, Object> data, UniqueIdSource uniqueIdSource) throws IOException {
+        checkNotNull(uniqueIdSource);
+        Map<Object, Object> regions = (Map<Object, Object>) data.get("regions");
+        stats = new ConversionStats();
+        stats.setRegionCount(regions != null ? regions.size() : 0);
+        regionCounter.add(stats.getRegionCount());
+        Set<String> names = collectNames(regions);
+        Map<String, UUID> uniqueIds = resolveUniqueIds(names, uniqueIdSource);
         if (regions == null) return;
-        for (Entry<Object, Object> entry : regions.entrySet()) {
-            log.info("REGION: '" + entry.getKey() + "'");
-            processRegion((Map<Object, Object>) entry.getValue());
+
+        long start = convertTimer.start();
+        for (Object region : regions.values()) {
+            if (region == null) continue;
+            upgradeDomain((Map<Object, Object>) ((Map<Object, Object>) region).get("owners"), uniqueIds);
+            upgradeDomain((Map<Object, Object>) ((Map<Object, Object>) region).get("members"), uniqueIds);
         }
+        convertTimer.stop(start);
     }
 
-    private void processRegion(@Nullable Map<Object, Object> region) {
-        if (region == null) return;
-        processDomain((Map<Object, Object>) region.get("owners"));
-        processDomain((Map<Object, Object>) region.get("members"));
+    /**
+     * Get statistics about the most recent conversion.
+     *
+     * @return the statistics
+     */
+    public ConversionStats getStats() {
+        return stats;
+    }
+
+    private Set<UUID> collectUniqueIds(@Nullable Map<Object, Object> regions) {
+        Set<UUID> uniqueIds = new LinkedHashSet<UUID>();
+        if (regions == null) return uniqueIds;
+        for (Object region : regions.values()) {
+            if (region == null) continue;
+            collectUniqueIds((Map<Object, Object>) ((Map<Object, Object>) region).get("owners"), uniqueIds);
+            collectUniqueIds((Map<Object, Object>) ((Map<Object, Object>) region).get("members"), uniqueIds);
+        }
+        return uniqueIds;
     }
 
-    private void processDomain(@Nullable Map<Object, Object> domain) {
+    private void collectUniqueIds(@Nullable Map<Object, Object> domain, Set<UUID> uniqueIds) {
         if (domain == null) return;
-        @Nullable Collection<Object> uniqueIds = (Collection<Object>) domain.get("unique-ids");
-        if (uniqueIds != null) {
-            Iterator<Object> it = uniqueIds.iterator();
+        @Nullable Collection<Object> rawUuids = (Collection<Object>) domain.get("unique-ids");
+        if (rawUuids != null) {
+            for (Object rawUuid : rawUuids) {
+                @Nullable UUID uuid = parseUuid(rawUuid);
+                if (uuid != null) {
+                    uniqueIds.add(uuid);
+                } else {
+                    log.log(Level.WARNING, "Invalid UUID: " + rawUuid);
+                }
+            }
+        }
+    }
 
-            while (it.hasNext()) {
-                Object rawUuid = it.next();
+    private Set<String> collectNames(@Nullable Map<Object, Object> regions) {
+        Set<String> names = new LinkedHashSet<String>();
+        if (regions == null) return names;
+        for (Object region : regions.values()) {
+            if (region == null) continue;
+            collectNames((Map<Object, Object>) ((Map<Object, Object>) region).get("owners"), names);
+            collectNames((Map<Object, Object>) ((Map<Object, Object>) region).get("members"), names);
+        }
+        return names;
+    }
 
-                try {
-                    UUID uuid = UUID.fromString(UUIDs.addDashes((String) rawUuid));
-                    @Nullable String name = resolver.resolve(uuid);
-                    log.info(uuid + " -> " + name);
-
-                    if (name != null) {
-                        List<String> names;
-
-                        if (!domain.containsKey("players")) {
-                            domain.put("players", names = new ArrayList<String>());
-                        } else {
-                            Object object = domain.get("players");
-                            if (object instanceof Set) {
-                                names = (List<String>) object;
-                            } else if (object instanceof Collection) {
-                                names = new ArrayList<String>((Collection) object);
-                                domain.put("players", names);
-                            } else {
-                                domain.put("players", names = new ArrayList<String>());
-                            }
-                        }
-
-                        names.add(name);
-                        it.remove();
-                    }
-                } catch (IllegalArgumentException e) {
-                    log.log(Level.WARNING, "Invalid UUID: " + rawUuid);
+    private void collectNames(@Nullable Map<Object, Object> domain, Set<String> names) {
+        if (domain == null) return;
+        @Nullable Object players = domain.get("players");
+        if (players instanceof Collection) {
+            for (Object name : (Collection<Object>) players) {
+                if (name != null) {
+                    names.add(String.valueOf(name).toLowerCase(Locale.ROOT));
                 }
             }
         }
     }
 
+    private Map<String, UUID> resolveUniqueIds(Set<String> names, UniqueIdSource source) throws IOException {
+        stats.setUniqueIdCount(names.size());
+        if (names.isEmpty()) return new HashMap<String, UUID>();
+
+        log.info("Resolving " + names.size() + " unique name(s)...");
+
+        long start = resolveTimer.start();
+        // Every name is given to the source at once so that lookups are never
+        // held back waiting for a chunk to finish
+        ProgressReporter progress = new ProgressReporter("Resolving UUIDs", names.size());
+        Map<String, UUID> uniqueIds = UniqueIdSourceChain.resolveUniqueIds(source, names, progress);
+        progress.finish();
+        resolveTimer.stop(start);
+
+        if (log.isLoggable(Level.FINE)) {
+            for (String name : names) {
+                @Nullable UUID uuid = uniqueIds.get(name);
+                log.fine(name + " -> " + (uuid != null ? uuid : "?"));
+            }
+        }
+
+        stats.setResolvedCount(uniqueIds.size());
+        return uniqueIds;
+    }
+
+    private void upgradeDomain(@Nullable Map<Object, Object> domain, Map<String, UUID> resolved) {
+        if (domain == null) return;
+        @Nullable Object players = domain.get("players");
+        if (!(players instanceof Collection)) return;
+
+        Set<String> uniqueIds = new LinkedHashSet<String>();
+        @Nullable Object existing = domain.get("unique-ids");
+        if (existing instanceof Collection) {
+            for (Object rawUuid : (Collection<Object>) existing) {
+                uniqueIds.add(String.valueOf(rawUuid));
+            }
+        }
+
+        List<Object> remaining = new ArrayList<Object>();
+        int converted = 0;
+        for (Object name : (Collection<Object>) players) {
+            @Nullable UUID uuid = name != null ? resolved.get(String.valueOf(name).toLowerCase(Locale.ROOT)) : null;
+            if (uuid != null) {
+                uniqueIds.add(uuid.toString());
+                converted++;
+            } else {
+                remaining.add(name);
+            }
+        }
+
+        if (converted > 0) {
+            domain.put("players", remaining);
+            domain.put("unique-ids", new ArrayList<String>(uniqueIds));
+            stats.addConverted(converted);
+            convertedCounter.add(converted);
+        }
+    }
+
+    private Map<UUID, String> resolveAll(Set<UUID> uniqueIds) throws IOException {
+        stats.setUniqueIdCount(uniqueIds.size());
+        if (uniqueIds.isEmpty()) return new HashMap<UUID, String>();
+
+        log.info("Resolving " + uniqueIds.size() + " unique UUID(s)...");
+
+        long start = resolveTimer.start();
+        // Every UUID is given to the source at once so that lookups are never
+        // held back waiting for a chunk to finish
+        ProgressReporter progress = new ProgressReporter("Resolving names", uniqueIds.size());
+        Map<UUID, String> names = NameSourceChain.resolveAll(source, uniqueIds, progress);
+        progress.finish();
+        resolveTimer.stop(start);
+
+        if (log.isLoggable(Level.FINE)) {
+            for (UUID uuid : uniqueIds) {
+                @Nullable String name = names.get(uuid);
+                log.fine(uuid + " -> " + (name != null ? name : "?"));
+            }
+        }
+
+        stats.setResolvedCount(names.size());
+        return names;
+    }
+
+    private void processRegions(@Nullable Map<Object, Object> regions, Map<UUID, String> names) {
+        if (regions == null) return;
+        ProgressReporter progress = new ProgressReporter("Converting regions", regions.size());
+        List<Entry<Object, Object>> entries = new ArrayList<Entry<Object, Object>>(regions.entrySet());
+        int converted = 0;
+
+        // Every region is changed in place and no region depends on another,
+        // so the order of the regions map stays the same either way
+        if (parallelism > 1 && entries.size() > REGION_CHUNK_SIZE) {
+            ForkJoinPool pool = new ForkJoinPool(parallelism);
+            try {
+                converted = pool.invoke(new RegionsTask(entries, names, progress));
+            } finally {
+                pool.shutdown();
+            }
+        } else {
+            for (List<Entry<Object, Object>> chunk : Lists.partition(entries, REGION_CHUNK_SIZE)) {
+                converted += processRegions(chunk, names, progress);
+            }
+        }
+
+        progress.finish();
+        stats.addConverted(converted);
+        convertedCounter.add(converted);
+    }
+
+    private static int processRegions(List<Entry<Object, Object>> entries, Map<UUID, String> names, ProgressReporter progress) {
+        boolean logRegions = log.isLoggable(Level.FINE);
+        int converted = 0;
+        for (Entry<Object, Object> entry : entries) {
+            if (logRegions) {
+                log.fine("REGION: '" + entry.getKey() + "'");
+            }
+            converted += processRegion((Map<Object, Object>) entry.getValue(), names);
+        }
+        progress.add(entries.size());
+        return converted;
+    }
+
+    private static int processRegion(@Nullable Map<Object, Object> region, Map<UUID, String> names) {
+        if (region == null) return 0;
+        return processDomain((Map<Object, Object>) region.get("owners"), names)
+                + processDomain((Map<Object, Object>) region.get("members"), names);
+    }
+
+    private static int processDomain(@Nullable Map<Object, Object> domain, Map<UUID, String> resolved) {
+        if (domain == null) return 0;
+        @Nullable Object rawUuids = domain.get("unique-ids");
+        if (!(rawUuids instanceof Collection)) return 0;
+
+        List<Object> remaining = new ArrayList<Object>();
+        List<String> added = new ArrayList<String>();
+        for (Object rawUuid : (Collection<Object>) rawUuids) {
+            @Nullable UUID uuid = parseUuid(rawUuid);
+            @Nullable String name = uuid != null ? resolved.get(uuid) : null;
+            if (name != null) {
+                added.add(name);
+            } else {
+                remaining.add(rawUuid);
+            }
+        }
+
+        if (added.isEmpty()) return 0;
+
+        domain.put("unique-ids", remaining);
+        domain.put("players", mergeNames(domain.get("players"), added));
+        return added.size();
+    }
+
+    /**
+     * Merge names into a list of players, keeping the order that they are
+     * first seen in and leaving out names that are already in the list.
+     *
+     * <p>Names are compared without regard to case, as WorldGuard does,
+     * and the first spelling of a name is kept.</p>
+     *
+     * @param players the existing list, which may be any collection or null
+     * @param added the names to add
+     * @return the merged list
+     */
+    static List<String> mergeNames(@Nullable Object players, Collection<String> added) {
+        Map<String, String> merged = new LinkedHashMap<String, String>();
+        if (players instanceof Collection) {
+            for (Object name : (Collection<?>) players) {
+                if (name != null) {
+                    addName(merged, String.valueOf(name));
+                }
+            }
+        }
+        for (String name : added) {
+            addName(merged, name);
+        }
+        return new ArrayList<String>(merged.values());
+    }
+
+    private static void addName(Map<String, String> merged, String name) {
+        String key = name.toLowerCase(Locale.ROOT);
+        if (!merged.containsKey(key)) {
+            merged.put(key, name);
+        }
+    }
+
+    @Nullable
+    static UUID parseUuid(@Nullable Object rawUuid) {
+        if (rawUuid == null) return null;
+        try {
+            return UUID.fromString(UUIDs.addDashes(String.valueOf(rawUuid)));
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+
+    /**
+     * Converts a range of regions, splitting it in half until the ranges
+     * are small enough.
+     */
+    private static class RegionsTask extends RecursiveTask<Integer> {
+        private final List<Entry<Object, Object>> entries;
+        private final Map<UUID, String> names;
+        private final ProgressReporter progress;
+
+        private RegionsTask(List<Entry<Object, Object>> entries, Map<UUID, String> names, ProgressReporter progress) {
+            this.entries = entries;
+            this.names = names;
+            this.progress = progress;
+        }
+
+        @Override
+        protected Integer compute() {
+            if (entries.size() <= REGION_CHUNK_SIZE) {
+                return processRegions(entries, names, progress);
+            }
+            int middle = entries.size() / 2;
+            RegionsTask first = new RegionsTask(entries.subList(0, middle), names, progress);
+            RegionsTask second = new RegionsTask(entries.subList(middle, entries.size()), names, progress);
+            first.fork();
+            return second.compute() + first.join();
+        }
+    }
+
 }
@@ -0,0 +1,282 @@
+/*
+ * Six2Five
+ * Copyright (C) sk89q <http://www.sk89q.com>
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.sk89q.worldguard.six2five;
+
+import com.google.common.io.Closer;
+import org.yaml.snakeyaml.Yaml;
+import org.yaml.snakeyaml.error.YAMLException;
+
+import javax.annotation.Nullable;
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Keeps a downgraded copy of a regions file up to date while the original
+ * keeps changing, such as for a WorldGuard 5 mirror of a live server.
+ *
+ * <p>The regions of the last version of the file are kept in memory. When
+ * the file changes, only the regions that were added or differ from the
+ * last version are downgraded, so only their UUIDs are given to the name
+ * source, and the rest are reused as they were. Regions that still have
+ * UUIDs without a name after being downgraded are not remembered as done,
+ * so they are downgraded again with the next change.</p>
+ */
+@SuppressWarnings("unchecked")
+public class RegionsWatcher {
+
+    private static final Logger log = Logger.getLogger(RegionsWatcher.class.getCanonicalName());
+    private static final long QUIET_PERIOD = 500;
+
+    private final File file;
+    private final File output;
+    private final RegionsProcessor processor;
+    private final Yaml yaml = new Yaml();
+    private Map<Object, Object> previous = new LinkedHashMap<Object, Object>();
+    private Map<Object, Object> converted = new LinkedHashMap<Object, Object>();
+
+    /**
+     * Create a new watcher.
+     *
+     * @param file the regions file to watch
+     * @param output the file to write the downgraded copy to
+     * @param source the source to look up names from, which should remember
+     *               names that it has already found
+     */
+    public RegionsWatcher(File file, File output, NameSource source) {
+        checkNotNull(file);
+        checkNotNull(output);
+        checkArgument(!file.getAbsoluteFile().equals(output.getAbsoluteFile()), "The output must not be the watched file");
+        this.file = file.getAbsoluteFile();
+        this.output = output.getAbsoluteFile();
+        this.processor = new RegionsProcessor(source);
+    }
+
+    /**
+     * Convert the file and then convert it again every time it changes,
+     * until the thread is interrupted.
+     *
+     * <p>Changes are only acted upon once the file has stopped changing
+     * for a moment, so a file that is written in several steps is
+     * converted once.</p>
+     *
+     * @throws IOException thrown if the file cannot be watched
+     */
+    public void watch() throws IOException {
+        Path dir = file.getParentFile().toPath();
+        Path name = file.toPath().getFileName();
+
+        Closer closer = Closer.create();
+        try {
+            WatchService watchService = closer.register(dir.getFileSystem().newWatchService());
+            dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+
+            update();
+            log.info("Watching " + file + " for changes...");
+
+            while (true) {
+                WatchKey key = watchService.take();
+                boolean changed = false;
+
+                while (key != null) {
+                    for (WatchEvent<?> event : key.pollEvents()) {
+                        if (event.kind() == StandardWatchEventKinds.OVERFLOW || name.equals(event.context())) {
+                            changed = true;
+                        }
+                    }
+                    if (!key.reset()) {
+                        throw new IOException("The directory " + dir + " can no longer be watched");
+                    }
+                    key = watchService.poll(QUIET_PERIOD, TimeUnit.MILLISECONDS);
+                }
+
+                if (changed) {
+                    update();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Throwable t) {
+            throw closer.rethrow(t);
+        } finally {
+            closer.close();
+        }
+    }
+
+    /**
+     * Downgrade the regions that changed since the last call and write the
+     * whole downgraded copy.
+     *
+     * @return true if the copy was written
+     * @throws IOException thrown if names could not be looked up
+     */
+    public boolean update() throws IOException {
+        long start = System.currentTimeMillis();
+        Map<Object, Object> data;
+
+        Closer closer = Closer.create();
+        try {
+            Reader reader = closer.register(RegionsProcessor.openReader(file));
+            data = (Map<Object, Object>) yaml.load(reader);
+        } catch (IOException e) {
+            log.log(Level.WARNING, "Failed to read " + file, e);
+            return false;
+        } catch (YAMLException e) {
+            // Most likely caught in the middle of being written, in which case
+            // the write will cause another change soon
+            log.log(Level.WARNING, "Failed to parse " + file + "; waiting for the next change", e);
+            return false;
+        } finally {
+            closer.close();
+        }
+
+        if (data == null) {
+            data = new LinkedHashMap<Object, Object>();
+        }
+        @Nullable Map<Object, Object> regions = (Map<Object, Object>) data.get("regions");
+        if (regions == null) {
+            regions = new LinkedHashMap<Object, Object>();
+        }
+
+        // The changed regions are copied before they are downgraded so that the
+        // originals stay as they are to compare the next version against
+        Map<Object, Object> changed = new LinkedHashMap<Object, Object>();
+        for (Map.Entry<Object, Object> entry : regions.entrySet()) {
+            @Nullable Object last = previous.get(entry.getKey());
+            if (last == null || !last.equals(entry.getValue())) {
+                changed.put(entry.getKey(), copy(entry.getValue()));
+            }
+        }
+        int removed = 0;
+        for (Object id : previous.keySet()) {
+            if (!regions.containsKey(id)) {
+                removed++;
+            }
+        }
+
+        int uniqueIdCount = 0;
+        if (!changed.isEmpty()) {
+            Map<Object, Object> changedData = new LinkedHashMap<Object, Object>();
+            changedData.put("regions", changed);
+            processor.downgrade(changedData);
+            uniqueIdCount = processor.getStats().getUniqueIdCount();
+        }
+
+        Map<Object, Object> convertedRegions = new LinkedHashMap<Object, Object>();
+        for (Object id : regions.keySet()) {
+            convertedRegions.put(id, changed.containsKey(id) ? changed.get(id) : converted.get(id));
+        }
+        Map<Object, Object> convertedData = new LinkedHashMap<Object, Object>(data);
+        convertedData.put("regions", convertedRegions);
+
+        Map<Object, Object> done = new LinkedHashMap<Object, Object>(regions);
+        int unresolved = 0;
+        for (Map.Entry<Object, Object> entry : changed.entrySet()) {
+            if (hasUniqueIds(entry.getValue())) {
+                done.remove(entry.getKey());
+                unresolved++;
+            }
+        }
+
+        closer = Closer.create();
+        try {
+            AtomicFileOutput out = closer.register(new AtomicFileOutput(output));
+            yaml.dump(convertedData, out.getWriter());
+            out.commit();
+        } catch (IOException e) {
+            log.log(Level.WARNING, "Failed to write " + output, e);
+            return false;
+        } finally {
+            closer.close();
+        }
+
+        previous = done;
+        converted = convertedRegions;
+
+        log.info("Updated " + output + ": " + changed.size() + " region(s) changed, " + removed + " removed, "
+                + uniqueIdCount + " UUID(s) resolved, " + unresolved + " region(s) to retry ("
+                + (System.currentTimeMillis() - start) + "ms)");
+
+        return true;
+    }
+
+    /**
+     * Check whether a downgraded region still has UUIDs that no name
+     * was found for.
+     *
+     * @param region the region
+     * @return true if the owners or members have UUIDs left
+     */
+    private static boolean hasUniqueIds(@Nullable Object region) {
+        if (!(region instanceof Map)) return false;
+        for (String key : new String[] { "owners", "members" }) {
+            @Nullable Object domain = ((Map<Object, Object>) region).get(key);
+            if (domain instanceof Map) {
+                @Nullable Object uniqueIds = ((Map<Object, Object>) domain).get("unique-ids");
+                if (uniqueIds instanceof Collection && !((Collection<Object>) uniqueIds).isEmpty()) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static Object copy(@Nullable Object object) {
+        if (object instanceof Map) {
+            Map<Object, Object> copy = new LinkedHashMap<Object, Object>();
+            for (Map.Entry<Object, Object> entry : ((Map<Object, Object>) object).entrySet()) {
+                copy.put(entry.getKey(), copy(entry.getValue()));
+            }
+            return copy;
+        } else if (object instanceof Set) {
+            Set<Object> copy = new LinkedHashSet<Object>();
+            for (Object element : (Collection<Object>) object) {
+                copy.add(copy(element));
+            }
+            return copy;
+        } else if (object instanceof Collection) {
+            List<Object> copy = new ArrayList<Object>();
+            for (Object element : (Collection<Object>) object) {
+                copy.add(copy(element));
+            }
+            return copy;
+        } else {
+            return object;
+        }
+    }
+
+}
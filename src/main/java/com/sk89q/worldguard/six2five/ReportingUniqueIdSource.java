@@ -0,0 +1,45 @@
+/*
+ * Six2Five
+ * Copyright (C) sk89q <http://www.sk89q.com>
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.sk89q.worldguard.six2five;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * A UUID source that reports each name as soon as it is done with it, so
+ * that progress can be shown while one long lookup is still running.
+ */
+public interface ReportingUniqueIdSource extends UniqueIdSource {
+
+    /**
+     * Look up the UUIDs of the given names, adding one to the progress for
+     * every name once a UUID was found for it or none could be.
+     *
+     * @param names the names, in lower case
+     * @param progress the progress to add to, or null
+     * @return a map of the names that a UUID was found for
+     * @throws IOException thrown if the lookup could not be completed
+     */
+    Map<String, UUID> resolveUniqueIds(Collection<String> names, @Nullable ProgressReporter progress) throws IOException;
+
+}
@@ -18,59 +18,311 @@
 
 package com.sk89q.worldguard.six2five;
 
+import com.google.common.io.Closer;
 import com.sk89q.worldguard.six2five.util.SimpleLogFormatter;
 import joptsimple.OptionParser;
 import joptsimple.OptionSet;
+import joptsimple.OptionSpec;
 
-import javax.swing.*;
-import java.awt.*;
+import javax.annotation.Nullable;
 import java.io.File;
 import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 public class Six2Five {
 
     private static final Logger log = Logger.getLogger(Six2Five.class.getCanonicalName());
+    static final File DEFAULT_CACHE_FILE = new File("six2five-names.txt");
+    static final File DEFAULT_REPORT_FILE = new File("six2five-report.json");
 
     public static void main(String[] args) throws IOException {
+        int code = run(args, true);
+        if (code != 0) {
+            System.exit(code);
+        }
+    }
+
+    /**
+     * Run Six2Five with the given command line arguments.
+     *
+     * <p>This class does not refer to any AWT or Swing class, so none are
+     * loaded unless the GUI is opened.</p>
+     *
+     * <p>Nothing is exited here, so that the name cache and the other
+     * resources are closed before the caller exits with the returned
+     * code.</p>
+     *
+     * @param args the arguments
+     * @param gui true to open the GUI if no files are given
+     * @return the exit code, which is 0 on success, 1 if the usage was
+     *         printed and 2 if the conversion failed
+     * @throws IOException thrown on an I/O error
+     */
+    static int run(String[] args, boolean gui) throws IOException {
         SimpleLogFormatter.configureGlobalLogger();
 
         OptionParser parser = new OptionParser("h");
+        OptionSpec<File> cacheOpt = parser.accepts("cache").withRequiredArg().ofType(File.class).defaultsTo(DEFAULT_CACHE_FILE);
+        OptionSpec<Integer> threadsOpt = parser.accepts("threads").withRequiredArg().ofType(Integer.class).defaultsTo(LastNameResolver.DEFAULT_THREAD_COUNT);
+        OptionSpec<Integer> parallelOpt = parser.accepts("parallel").withRequiredArg().ofType(Integer.class).defaultsTo(4);
+        OptionSpec<File> namesOpt = parser.accepts("names").withRequiredArg().ofType(File.class);
+        OptionSpec<Double> rateOpt = parser.accepts("rate").withRequiredArg().ofType(Double.class).defaultsTo(LastNameResolver.FETCHES_PER_SECOND);
+        parser.accepts("plan");
+        parser.accepts("upgrade");
+        OptionSpec<File> watchOpt = parser.accepts("watch").withRequiredArg().ofType(File.class);
+        OptionSpec<String> sqlOpt = parser.accepts("sql").withRequiredArg();
+        OptionSpec<String> sqlUserOpt = parser.accepts("sql-user").withRequiredArg();
+        OptionSpec<String> sqlPasswordOpt = parser.accepts("sql-password").withRequiredArg();
+        OptionSpec<String> sqlPrefixOpt = parser.accepts("sql-prefix").withRequiredArg().defaultsTo("");
+        OptionSpec<File> reportOpt = parser.accepts("report").withRequiredArg().ofType(File.class).defaultsTo(DEFAULT_REPORT_FILE);
+        OptionSpec<Integer> metricsPortOpt = parser.accepts("metrics-port").withRequiredArg().ofType(Integer.class);
         OptionSet options = parser.parse(args);
 
         List<?> nonOptions = options.nonOptionArguments();
 
-        if (options.has("h") || nonOptions.size() != 1) {
-            System.err.println("usage: six2five [-h] regions_file.yml");
+        if (options.has("h") || (nonOptions.isEmpty() && !options.has(sqlOpt))) {
+            System.err.println("usage: six2five [-h] [--cache names.txt] [--threads n] [--parallel n] [--rate n] [--plan] [--upgrade] [--watch output.yml] " +
+                    "[--report report.json] [--metrics-port n] " +
+                    "[--names usercache.json|playerdata|userdata|names.csv]... " +
+                    "(regions_file.yml | worlds_dir)...");
+            System.err.println("       six2five [options] --sql jdbc:mysql://host/database [--sql-user user] [--sql-password password] [--sql-prefix prefix]");
 
-            if (nonOptions.isEmpty()) {
-                SwingUtilities.invokeLater(new GUIRunner());
+            if (nonOptions.isEmpty() && gui) {
+                Six2FiveFrame.launch();
+            } else if (nonOptions.isEmpty() && !options.has("h")) {
+                return 1;
             }
+            return 0;
         } else {
-            File file = new File(String.valueOf(nonOptions.get(0)));
-            RegionsProcessor processor = new RegionsProcessor();
-            if (!processor.downgrade(file)) {
-                System.exit(2);
+            @Nullable File first = nonOptions.isEmpty() ? null : new File(String.valueOf(nonOptions.get(0)));
+            boolean upgrade = options.has("upgrade");
+            @Nullable MetricsServer metricsServer = null;
+            if (options.has(metricsPortOpt)) {
+                try {
+                    metricsServer = new MetricsServer(options.valueOf(metricsPortOpt));
+                } catch (IOException e) {
+                    log.log(Level.WARNING, "Failed to start the metrics server on port " + options.valueOf(metricsPortOpt), e);
+                }
+            }
+
+            PersistentNameCache cache = openNameCache(options.valueOf(cacheOpt));
+            Closer closer = Closer.create();
+            try {
+                @Nullable OfflineNameIndex offlineIndex = buildOfflineIndex(options.valuesOf(namesOpt));
+                boolean success;
+
+                if (options.has(sqlOpt) && upgrade) {
+                    log.warning("--upgrade cannot be used with --sql; only downgrading a database is supported");
+                    success = false;
+                } else if (options.has(sqlOpt)) {
+                    NameSource source = closer.register(createNameSource(cache, offlineIndex, options.valueOf(rateOpt), options.valueOf(threadsOpt)));
+                    success = downgradeSql(source, options.valueOf(sqlOpt), options.valueOf(sqlUserOpt),
+                            options.valueOf(sqlPasswordOpt), options.valueOf(sqlPrefixOpt));
+                } else if (options.has("plan")) {
+                    List<File> files = new ArrayList<File>();
+                    for (Object path : nonOptions) {
+                        files.addAll(BatchConverter.findRegionFiles(new File(String.valueOf(path))));
+                    }
+                    success = new ConversionPlanner(cache, offlineIndex, options.valueOf(rateOpt)).plan(files);
+                } else if (options.has(watchOpt)) {
+                    if (nonOptions.size() != 1 || first.isDirectory()) {
+                        log.warning("--watch takes exactly one regions file");
+                        success = false;
+                    } else if (upgrade) {
+                        log.warning("--upgrade cannot be used with --watch; only downgrading a watched file is supported");
+                        success = false;
+                    } else {
+                        NameSource source = closer.register(createNameSource(cache, offlineIndex, options.valueOf(rateOpt), options.valueOf(threadsOpt)));
+                        // The watcher usually runs until the program is stopped, which never
+                        // returns here, so the report is written on shutdown instead
+                        final File reportFile = options.valueOf(reportOpt);
+                        Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+                            @Override
+                            public void run() {
+                                writeReport(reportFile);
+                            }
+                        }, "six2five-report"));
+                        new RegionsWatcher(first, options.valueOf(watchOpt), source).watch();
+                        success = true;
+                    }
+                } else if (nonOptions.size() == 1 && !first.isDirectory()) {
+                    NameSource source = closer.register(createNameSource(cache, offlineIndex, options.valueOf(rateOpt), options.valueOf(threadsOpt)));
+                    RegionsProcessor processor = new RegionsProcessor(source);
+                    if (upgrade) {
+                        success = processor.upgrade(first, closer.register(createUniqueIdSource(cache, offlineIndex, options.valueOf(rateOpt), options.valueOf(threadsOpt))));
+                    } else {
+                        success = processor.downgrade(first);
+                    }
+                } else {
+                    NameSource source = closer.register(createNameSource(cache, offlineIndex, options.valueOf(rateOpt), options.valueOf(threadsOpt)));
+                    List<File> files = new ArrayList<File>();
+                    for (Object path : nonOptions) {
+                        files.addAll(BatchConverter.findRegionFiles(new File(String.valueOf(path))));
+                    }
+                    @Nullable UniqueIdSource upgradeSource = upgrade
+                            ? closer.register(createUniqueIdSource(cache, offlineIndex, options.valueOf(rateOpt), options.valueOf(threadsOpt)))
+                            : null;
+                    BatchConverter converter = new BatchConverter(source, upgradeSource, options.valueOf(parallelOpt));
+                    success = converter.convert(files);
+                }
+
+                if (!options.has("plan") && !options.has(watchOpt)) {
+                    writeReport(options.valueOf(reportOpt));
+                }
+
+                return success ? 0 : 2;
+            } finally {
+                closer.close();
+                if (cache != null) {
+                    cache.close();
+                }
+                if (metricsServer != null) {
+                    metricsServer.close();
+                }
             }
         }
     }
 
-    private static class GUIRunner implements Runnable {
-        @Override
-        public void run() {
+    /**
+     * Downgrade the regions in a WorldGuard SQL database, logging a warning
+     * if the database cannot be connected to.
+     *
+     * <p>The JDBC driver for the database has to be on the class path.</p>
+     *
+     * @param source the source to look up names from
+     * @param url the JDBC URL
+     * @param user the user, or null
+     * @param password the password, or null
+     * @param tablePrefix the prefix of WorldGuard's tables
+     * @return true if the database was downgraded
+     * @throws IOException thrown if names could not be looked up
+     */
+    static boolean downgradeSql(NameSource source, String url, @Nullable String user, @Nullable String password,
+                                String tablePrefix) throws IOException {
+        Connection conn;
+        try {
+            conn = DriverManager.getConnection(url, user, password);
+        } catch (SQLException e) {
+            log.log(Level.WARNING, "Failed to connect to " + url, e);
+            return false;
+        }
+
+        try {
+            return new SqlRegionsProcessor(source, tablePrefix).downgrade(conn);
+        } finally {
             try {
-                UIManager.setLookAndFeel(UIManager.getSystemLookAndFeelClassName());
-            } catch (Exception ignored) {
+                conn.close();
+            } catch (SQLException e) {
+                log.log(Level.FINE, "Failed to close the connection to " + url, e);
             }
+        }
+    }
+
+    /**
+     * Write the metrics of the run to the given file, logging a warning
+     * if it cannot be written.
+     *
+     * @param file the report file
+     */
+    static void writeReport(File file) {
+        try {
+            Metrics.writeReport(file);
+            log.info("Wrote a performance report to " + file.getAbsolutePath());
+        } catch (IOException e) {
+            log.log(Level.WARNING, "Failed to write the performance report to " + file.getAbsolutePath(), e);
+        }
+    }
+
+    /**
+     * Open the name cache at the given file, logging a warning and returning
+     * null if it cannot be opened.
+     *
+     * @param file the cache file
+     * @return the cache, or null
+     */
+    @Nullable
+    static PersistentNameCache openNameCache(File file) {
+        try {
+            return new PersistentNameCache(file);
+        } catch (IOException e) {
+            log.log(Level.WARNING, "Failed to open the name cache at " + file.getAbsolutePath() + "; names will not be cached between runs", e);
+            return null;
+        }
+    }
+
+    /**
+     * Create the chain of sources that names are looked up from: the name
+     * cache, then the offline index and finally Mojang. Each source keeps
+     * the names it has, so no extra copy is kept in memory in front of them.
+     *
+     * @param cache the name cache, or null
+     * @param offlineIndex the offline index, or null
+     * @param fetchesPerSecond the highest rate to make requests to Mojang at
+     * @param threadCount the number of requests to Mojang that may be in flight at once
+     * @return the name source
+     */
+    static NameSourceChain createNameSource(@Nullable PersistentNameCache cache, @Nullable OfflineNameIndex offlineIndex,
+                                       double fetchesPerSecond, int threadCount) {
+        List<NameSource> sources = new ArrayList<NameSource>();
+        if (cache != null) {
+            sources.add(cache);
+        }
+        if (offlineIndex != null) {
+            sources.add(offlineIndex);
+        }
+        sources.add(new LastNameResolver(cache, fetchesPerSecond, threadCount));
+        return new NameSourceChain(sources);
+    }
+
+    /**
+     * Create the chain of sources that UUIDs are looked up from: the name
+     * cache, then the offline index and finally Mojang, which is given
+     * {@link ProfileResolver#BATCH_SIZE} names per request.
+     *
+     * @param cache the name cache, or null
+     * @param offlineIndex the offline index, or null
+     * @param requestsPerSecond the highest rate to make requests to Mojang at
+     * @param threadCount the number of requests to Mojang that may be in flight at once
+     * @return the UUID source
+     */
+    static UniqueIdSourceChain createUniqueIdSource(@Nullable PersistentNameCache cache, @Nullable OfflineNameIndex offlineIndex,
+                                               double requestsPerSecond, int threadCount) {
+        List<UniqueIdSource> sources = new ArrayList<UniqueIdSource>();
+        if (cache != null) {
+            sources.add(cache);
+        }
+        if (offlineIndex != null) {
+            sources.add(offlineIndex);
+        }
+        sources.add(new ProfileResolver(cache, requestsPerSecond, threadCount));
+        return new UniqueIdSourceChain(sources);
+    }
 
+    /**
+     * Index the names in the given local sources, logging a warning for
+     * any source that cannot be read.
+     *
+     * @param sources a list of files and directories
+     * @return the index, or null if no sources were given
+     */
+    @Nullable
+    static OfflineNameIndex buildOfflineIndex(List<File> sources) {
+        if (sources.isEmpty()) return null;
+        OfflineNameIndex index = new OfflineNameIndex();
+        for (File source : sources) {
             try {
-                new Six2FiveFrame().setVisible(true);
-                System.err.println();
-                log.info("Six2Five UI successfully opened");
-            } catch (HeadlessException ignored) {
+                index.add(source);
+            } catch (IOException e) {
+                log.log(Level.WARNING, "Failed to read names from " + source.getAbsolutePath(), e);
             }
         }
+        return index;
     }
 
 }
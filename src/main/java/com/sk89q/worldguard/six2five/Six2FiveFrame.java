@@ -18,6 +18,7 @@
 
 package com.sk89q.worldguard.six2five;
 
+import com.google.common.io.Closer;
 import com.google.common.io.Files;
 import com.sk89q.worldguard.six2five.util.MessageLog;
 import com.sk89q.worldguard.six2five.util.SwingHelper;
@@ -28,13 +29,38 @@ import java.awt.*;
 import java.awt.event.ActionEvent;
 import java.io.File;
 import java.io.IOException;
+import java.util.logging.Logger;
 
 public class Six2FiveFrame extends JFrame {
 
+    private static final Logger log = Logger.getLogger(Six2FiveFrame.class.getCanonicalName());
     private final JPanel container;
     private File lastDirectory = new File(".");
     private Thread running;
 
+    /**
+     * Open the frame on the event dispatch thread. Nothing happens if
+     * there is no display.
+     */
+    public static void launch() {
+        SwingUtilities.invokeLater(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    UIManager.setLookAndFeel(UIManager.getSystemLookAndFeelClassName());
+                } catch (Exception ignored) {
+                }
+
+                try {
+                    new Six2FiveFrame().setVisible(true);
+                    System.err.println();
+                    log.info("Six2Five UI successfully opened");
+                } catch (HeadlessException ignored) {
+                }
+            }
+        });
+    }
+
     public Six2FiveFrame() {
         setTitle("WorldGuard 6->5 Downgrade Tool");
 
@@ -107,11 +133,22 @@ public class Six2FiveFrame extends JFrame {
             running = new Thread(new Runnable() {
                 @Override
                 public void run() {
-                    RegionsProcessor processor = new RegionsProcessor();
+                    PersistentNameCache cache = Six2Five.openNameCache(Six2Five.DEFAULT_CACHE_FILE);
+                    Closer closer = Closer.create();
                     try {
+                        if (cache != null) {
+                            closer.register(cache);
+                        }
+                        RegionsProcessor processor = new RegionsProcessor(closer.register(Six2Five.createNameSource(
+                                cache, null, LastNameResolver.FETCHES_PER_SECOND, LastNameResolver.DEFAULT_THREAD_COUNT)));
                         processor.downgrade(file);
                     } catch (IOException e) {
                         SwingHelper.showErrorDialog(Six2FiveFrame.this, "An error has occurred", "Error", e);
+                    } finally {
+                        try {
+                            closer.close();
+                        } catch (IOException ignored) {
+                        }
                     }
                 }
             });
@@ -0,0 +1,45 @@
+/*
+ * Six2Five
+ * Copyright (C) sk89q <http://www.sk89q.com>
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.sk89q.worldguard.six2five;
+
+import java.io.IOException;
+
+/**
+ * An entry point for scripts that takes the same arguments as
+ * {@link Six2Five}, but never opens the GUI.
+ *
+ * <p>No AWT or Swing class is loaded, and the HTTP client is only started
+ * if a name has to be fetched from Mojang, so a small file that only needs
+ * cached names is converted with little startup cost. If no files are
+ * given, the usage is printed and the exit code is 1.</p>
+ */
+public final class Six2FiveHeadless {
+
+    private Six2FiveHeadless() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        System.setProperty("java.awt.headless", "true");
+        int code = Six2Five.run(args, false);
+        if (code != 0) {
+            System.exit(code);
+        }
+    }
+
+}
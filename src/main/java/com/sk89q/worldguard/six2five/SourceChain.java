@@ -0,0 +1,186 @@
+/*
+ * Six2Five
+ * Copyright (C) sk89q <http://www.sk89q.com>
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.sk89q.worldguard.six2five;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
+import com.google.common.io.Closer;
+
+import javax.annotation.Nullable;
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Asks a list of sources in order, giving each source only the keys that
+ * the sources before it did not have a value for.
+ *
+ * <p>Sources are given keys in batches of their ideal batch size. Progress
+ * is reported by the sources that can report each key as it completes.
+ * For every other source, it is reported once the source returns.</p>
+ *
+ * @param <K> the type of key
+ * @param <V> the type of value
+ * @param <S> the type of source
+ */
+abstract class SourceChain<K, V, S> implements Closeable {
+
+    private final List<S> sources;
+    private final String metricPrefix;
+
+    /**
+     * Create a new chain.
+     *
+     * @param sources the sources, fastest first
+     * @param metricPrefix the prefix of the metrics recorded for each source
+     */
+    SourceChain(List<? extends S> sources, String metricPrefix) {
+        checkArgument(!sources.isEmpty(), "At least one source is required");
+        this.sources = ImmutableList.copyOf(sources);
+        this.metricPrefix = metricPrefix;
+    }
+
+    /**
+     * Get the sources in this chain.
+     *
+     * @return a list of sources
+     */
+    public List<S> getSources() {
+        return sources;
+    }
+
+    /**
+     * Look up the values of the given keys.
+     *
+     * @param keys the keys
+     * @param progress the progress to add one to for every key that is done with, or null
+     * @return a map of the keys that a value was found for
+     * @throws IOException thrown if a source could not complete a lookup
+     */
+    Map<K, V> resolve(Collection<K> keys, @Nullable ProgressReporter progress) throws IOException {
+        Map<K, V> found = new HashMap<K, V>();
+        Set<K> misses = new LinkedHashSet<K>(keys);
+        List<S> asked = new ArrayList<S>();
+        @Nullable Set<K> unreported = progress != null ? new HashSet<K>(misses) : null;
+
+        for (S source : sources) {
+            if (misses.isEmpty()) break;
+
+            // partition() allocates a full batch up front, so never ask for more than is left
+            int batchSize = Math.max(1, Math.min(getIdealBatchSize(source), misses.size()));
+            String prefix = metricPrefix + source.getClass().getSimpleName();
+            Metrics.Timer timer = Metrics.timer(prefix + ".lookup");
+            for (List<K> batch : Iterables.partition(new ArrayList<K>(misses), batchSize)) {
+                long start = timer.start();
+                Map<K, V> result = resolve(source, batch, progress);
+                timer.stop(start);
+                if (unreported != null) {
+                    if (isReporting(source)) {
+                        unreported.removeAll(batch);
+                    } else {
+                        int done = 0;
+                        for (K key : result.keySet()) {
+                            if (unreported.remove(key)) done++;
+                        }
+                        progress.add(done);
+                    }
+                }
+                Metrics.counter(prefix + ".hits").add(result.size());
+                Metrics.counter(prefix + ".misses").add(batch.size() - result.size());
+                if (!result.isEmpty()) {
+                    found.putAll(result);
+                    misses.removeAll(result.keySet());
+                    found(asked, result);
+                }
+            }
+
+            asked.add(source);
+        }
+
+        // Keys that no source found and no source reported are done as well
+        if (unreported != null) {
+            progress.add(unreported.size());
+        }
+
+        return found;
+    }
+
+    /**
+     * Get the ideal batch size of a source.
+     *
+     * @param source the source
+     * @return the batch size
+     */
+    abstract int getIdealBatchSize(S source);
+
+    /**
+     * Get whether a source reports the progress of each key itself.
+     *
+     * @param source the source
+     * @return true if the source reports progress
+     */
+    abstract boolean isReporting(S source);
+
+    /**
+     * Ask a source for the values of a batch of keys.
+     *
+     * @param source the source
+     * @param batch the keys
+     * @param progress the progress for a reporting source to add to, or null
+     * @return a map of the keys that a value was found for
+     * @throws IOException thrown if the lookup could not be completed
+     */
+    abstract Map<K, V> resolve(S source, List<K> batch, @Nullable ProgressReporter progress) throws IOException;
+
+    /**
+     * Called as soon as a batch has found values.
+     *
+     * @param earlier the sources that were asked before the one that found the values
+     * @param result the values that were found
+     */
+    void found(List<S> earlier, Map<K, V> result) {
+    }
+
+    /**
+     * Close every source in the chain that can be closed, last first.
+     *
+     * @throws IOException thrown if a source could not be closed
+     */
+    @Override
+    public void close() throws IOException {
+        Closer closer = Closer.create();
+        for (S source : sources) {
+            if (source instanceof Closeable) {
+                closer.register((Closeable) source);
+            }
+        }
+        closer.close();
+    }
+
+}
@@ -0,0 +1,411 @@
+/*
+ * Six2Five
+ * Copyright (C) sk89q <http://www.sk89q.com>
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.sk89q.worldguard.six2five;
+
+import com.google.common.base.Joiner;
+import com.google.common.collect.Iterables;
+import com.google.common.io.Closer;
+
+import javax.annotation.Nullable;
+import java.io.Closeable;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Downgrades the regions of a WorldGuard 6 SQL database in place.
+ *
+ * <p>WorldGuard 6 stores the owners and members of regions as rows in
+ * {@code region_players} that point to rows in {@code user}, which have
+ * either a name or a UUID. Every user with a UUID but no name is given
+ * the name of that UUID, in lower case as WorldGuard stores names, so
+ * WorldGuard 5 finds the player by name.</p>
+ *
+ * <p>Updates are sent as batches of prepared statements and committed
+ * every {@link #CHUNK_SIZE} rows, so a large table does not need one round
+ * trip per row or one huge transaction. Users that are already named are
+ * skipped, so a run that is stopped early can simply be started again.</p>
+ */
+public class SqlRegionsProcessor {
+
+    private static final Logger log = Logger.getLogger(SqlRegionsProcessor.class.getCanonicalName());
+    private static final Metrics.Timer scanTimer = Metrics.timer("phase.scan");
+    private static final Metrics.Timer resolveTimer = Metrics.timer("phase.resolve");
+    private static final Metrics.Timer rewriteTimer = Metrics.timer("phase.rewrite");
+    private static final Metrics.Counter convertedCounter = Metrics.counter("entries.converted");
+    static final int CHUNK_SIZE = 1000;
+    private static final int FETCH_SIZE = 1000;
+
+    private final NameSource source;
+    private final String userTable;
+    private final String regionTable;
+    private final String regionPlayersTable;
+    private ConversionStats stats = new ConversionStats();
+
+    /**
+     * Create a new processor.
+     *
+     * @param source the source to look up names from
+     * @param tablePrefix the prefix of the table names, which may be empty
+     */
+    public SqlRegionsProcessor(NameSource source, String tablePrefix) {
+        checkNotNull(source);
+        checkNotNull(tablePrefix);
+        this.source = source;
+        this.userTable = tablePrefix + "user";
+        this.regionTable = tablePrefix + "region";
+        this.regionPlayersTable = tablePrefix + "region_players";
+    }
+
+    /**
+     * Get statistics about the most recent conversion.
+     *
+     * @return the statistics
+     */
+    public ConversionStats getStats() {
+        return stats;
+    }
+
+    /**
+     * Give a name to every user in the database that only has a UUID.
+     *
+     * <p>If another user already has the name, such as one left over from
+     * before the move to UUIDs, the memberships of the UUID user are moved
+     * to that user instead and the UUID user is removed.</p>
+     *
+     * @param conn the connection, which is left open
+     * @return true if the database was downgraded
+     * @throws IOException thrown if names could not be looked up
+     */
+    public boolean downgrade(Connection conn) throws IOException {
+        stats = new ConversionStats();
+        boolean autoCommit = true;
+
+        try {
+            autoCommit = conn.getAutoCommit();
+
+            long start = scanTimer.start();
+            stats.setRegionCount(count(conn, regionTable));
+            Map<UUID, Integer> unnamed = new HashMap<UUID, Integer>();
+            Map<String, Integer> named = new HashMap<String, Integer>();
+            readUsers(conn, unnamed, named);
+            scanTimer.stop(start);
+
+            log.info("Converting UUIDs to names...");
+            Map<UUID, String> names = resolveAll(unnamed);
+
+            start = rewriteTimer.start();
+            conn.setAutoCommit(false);
+            Map<Integer, String> renames = new HashMap<Integer, String>();
+            Map<Integer, Integer> merges = new HashMap<Integer, Integer>();
+            for (Map.Entry<UUID, Integer> entry : unnamed.entrySet()) {
+                @Nullable String name = names.get(entry.getKey());
+                if (name == null) continue;
+                name = name.toLowerCase(Locale.ROOT);
+                @Nullable Integer existing = named.get(name);
+                if (existing != null) {
+                    merges.put(entry.getValue(), existing);
+                } else {
+                    renames.put(entry.getValue(), name);
+                    named.put(name, entry.getValue());
+                }
+            }
+            renameUsers(conn, renames);
+            if (!merges.isEmpty()) {
+                log.info(merges.size() + " player(s) already had a user by name, so their memberships are being moved to it...");
+                mergeUsers(conn, merges);
+            }
+            rewriteTimer.stop(start);
+            stats.addConverted(renames.size() + merges.size());
+            convertedCounter.add(renames.size() + merges.size());
+        } catch (SQLException e) {
+            log.log(Level.WARNING, "Failed to downgrade the regions in the database", e);
+            rollback(conn);
+            return false;
+        } finally {
+            try {
+                conn.setAutoCommit(autoCommit);
+            } catch (SQLException e) {
+                log.log(Level.WARNING, "Failed to restore auto-commit on the connection", e);
+            }
+        }
+
+        log.info("UUID -> name conversion is complete");
+        return true;
+    }
+
+    private int count(Connection conn, String table) throws SQLException {
+        Closer closer = Closer.create();
+        try {
+            Statement stmt = register(closer, conn.createStatement());
+            ResultSet rs = register(closer, stmt.executeQuery("SELECT COUNT(*) FROM " + table));
+            return rs.next() ? rs.getInt(1) : 0;
+        } finally {
+            closeQuietly(closer);
+        }
+    }
+
+    private void readUsers(Connection conn, Map<UUID, Integer> unnamed, Map<String, Integer> named) throws SQLException {
+        Closer closer = Closer.create();
+        try {
+            Statement stmt = register(closer, conn.createStatement());
+            stmt.setFetchSize(FETCH_SIZE);
+            ResultSet rs = register(closer, stmt.executeQuery("SELECT id, name, uuid FROM " + userTable));
+            while (rs.next()) {
+                int id = rs.getInt(1);
+                @Nullable String name = rs.getString(2);
+                @Nullable String rawUuid = rs.getString(3);
+                if (name != null) {
+                    named.put(name.toLowerCase(Locale.ROOT), id);
+                } else if (rawUuid != null) {
+                    @Nullable UUID uuid = RegionsProcessor.parseUuid(rawUuid);
+                    if (uuid != null) {
+                        unnamed.put(uuid, id);
+                    } else {
+                        log.log(Level.WARNING, "Invalid UUID: " + rawUuid);
+                    }
+                }
+            }
+        } finally {
+            closeQuietly(closer);
+        }
+    }
+
+    private Map<UUID, String> resolveAll(Map<UUID, Integer> unnamed) throws IOException {
+        stats.setUniqueIdCount(unnamed.size());
+        if (unnamed.isEmpty()) return new HashMap<UUID, String>();
+
+        log.info("Resolving " + unnamed.size() + " unique UUID(s)...");
+
+        long start = resolveTimer.start();
+        ProgressReporter progress = new ProgressReporter("Resolving names", unnamed.size());
+        Map<UUID, String> names = NameSourceChain.resolveAll(source, unnamed.keySet(), progress);
+        progress.finish();
+        resolveTimer.stop(start);
+
+        stats.setResolvedCount(names.size());
+        return names;
+    }
+
+    private void renameUsers(Connection conn, Map<Integer, String> renames) throws SQLException {
+        if (renames.isEmpty()) return;
+        ProgressReporter progress = new ProgressReporter("Naming users", renames.size());
+        Closer closer = Closer.create();
+        try {
+            PreparedStatement update = register(closer, conn.prepareStatement("UPDATE " + userTable + " SET name = ? WHERE id = ?"));
+            int pending = 0;
+            for (Map.Entry<Integer, String> entry : renames.entrySet()) {
+                update.setString(1, entry.getValue());
+                update.setInt(2, entry.getKey());
+                update.addBatch();
+                if (++pending == CHUNK_SIZE) {
+                    update.executeBatch();
+                    conn.commit();
+                    progress.add(pending);
+                    pending = 0;
+                }
+            }
+            update.executeBatch();
+            conn.commit();
+            progress.add(pending);
+            progress.finish();
+        } finally {
+            closeQuietly(closer);
+        }
+    }
+
+    /**
+     * Move the memberships of each user to another user and remove it.
+     *
+     * <p>A region can only have one row per user, so if both users are in
+     * the same region, the row of the user being removed is dropped,
+     * keeping ownership if either row had it.</p>
+     *
+     * @param conn the connection
+     * @param merges a map of the users to remove to the users to move their memberships to
+     * @throws SQLException thrown on SQL error
+     */
+    private void mergeUsers(Connection conn, Map<Integer, Integer> merges) throws SQLException {
+        Closer closer = Closer.create();
+        try {
+            PreparedStatement move = register(closer, conn.prepareStatement(
+                    "UPDATE " + regionPlayersTable + " SET user_id = ? WHERE region_id = ? AND world_id = ? AND user_id = ?"));
+            PreparedStatement drop = register(closer, conn.prepareStatement(
+                    "DELETE FROM " + regionPlayersTable + " WHERE region_id = ? AND world_id = ? AND user_id = ?"));
+            PreparedStatement promote = register(closer, conn.prepareStatement(
+                    "UPDATE " + regionPlayersTable + " SET owner = ? WHERE region_id = ? AND world_id = ? AND user_id = ?"));
+            PreparedStatement deleteUser = register(closer, conn.prepareStatement(
+                    "DELETE FROM " + userTable + " WHERE id = ?"));
+
+            for (List<Integer> chunk : Iterables.partition(new ArrayList<Integer>(merges.keySet()), Math.min(CHUNK_SIZE, merges.size()))) {
+                List<Integer> userIds = new ArrayList<Integer>(chunk);
+                for (Integer from : chunk) {
+                    userIds.add(merges.get(from));
+                }
+                Map<Membership, Boolean> memberships = readMemberships(conn, userIds);
+
+                for (Membership membership : new ArrayList<Membership>(memberships.keySet())) {
+                    @Nullable Integer into = merges.get(membership.userId);
+                    if (into == null) continue; // Already belongs to a named user
+
+                    boolean owner = memberships.get(membership);
+                    Membership target = new Membership(membership.regionId, membership.worldId, into);
+                    @Nullable Boolean targetOwner = memberships.get(target);
+                    if (targetOwner == null) {
+                        setParameters(move, into, membership.regionId, membership.worldId, membership.userId);
+                        move.addBatch();
+                        memberships.put(target, owner);
+                    } else {
+                        setParameters(drop, membership.regionId, membership.worldId, membership.userId);
+                        drop.addBatch();
+                        if (owner && !targetOwner) {
+                            setParameters(promote, true, membership.regionId, membership.worldId, into);
+                            promote.addBatch();
+                            memberships.put(target, true);
+                        }
+                    }
+                }
+
+                for (Integer from : chunk) {
+                    deleteUser.setInt(1, from);
+                    deleteUser.addBatch();
+                }
+
+                move.executeBatch();
+                drop.executeBatch();
+                promote.executeBatch();
+                deleteUser.executeBatch();
+                conn.commit();
+            }
+        } finally {
+            closeQuietly(closer);
+        }
+    }
+
+    private Map<Membership, Boolean> readMemberships(Connection conn, List<Integer> userIds) throws SQLException {
+        Map<Membership, Boolean> memberships = new HashMap<Membership, Boolean>();
+        String placeholders = Joiner.on(", ").join(Collections.nCopies(userIds.size(), "?"));
+
+        Closer closer = Closer.create();
+        try {
+            PreparedStatement stmt = register(closer, conn.prepareStatement(
+                    "SELECT region_id, world_id, user_id, owner FROM " + regionPlayersTable + " WHERE user_id IN (" + placeholders + ")"));
+            for (int i = 0; i < userIds.size(); i++) {
+                stmt.setInt(i + 1, userIds.get(i));
+            }
+            ResultSet rs = register(closer, stmt.executeQuery());
+            while (rs.next()) {
+                memberships.put(new Membership(rs.getString(1), rs.getInt(2), rs.getInt(3)), rs.getBoolean(4));
+            }
+        } finally {
+            closeQuietly(closer);
+        }
+
+        return memberships;
+    }
+
+    private static void setParameters(PreparedStatement stmt, Object... values) throws SQLException {
+        for (int i = 0; i < values.length; i++) {
+            stmt.setObject(i + 1, values[i]);
+        }
+    }
+
+    private static void rollback(Connection conn) {
+        try {
+            if (!conn.getAutoCommit()) {
+                conn.rollback();
+            }
+        } catch (SQLException e) {
+            log.log(Level.WARNING, "Failed to roll back the current chunk", e);
+        }
+    }
+
+    /**
+     * Register a statement or result set to be closed by the given closer.
+     *
+     * @param closer the closer
+     * @param closeable the statement or result set
+     * @param <T> the type
+     * @return the statement or result set
+     */
+    private static <T extends AutoCloseable> T register(Closer closer, final T closeable) {
+        closer.register(new Closeable() {
+            @Override
+            public void close() throws IOException {
+                try {
+                    closeable.close();
+                } catch (Exception e) {
+                    throw new IOException(e);
+                }
+            }
+        });
+        return closeable;
+    }
+
+    private static void closeQuietly(Closer closer) {
+        try {
+            closer.close();
+        } catch (IOException e) {
+            log.log(Level.FINE, "Failed to close a statement", e);
+        }
+    }
+
+    /**
+     * One row of {@code region_players}, without its owner flag.
+     */
+    private static final class Membership {
+        private final String regionId;
+        private final int worldId;
+        private final int userId;
+
+        private Membership(String regionId, int worldId, int userId) {
+            this.regionId = regionId;
+            this.worldId = worldId;
+            this.userId = userId;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Membership that = (Membership) o;
+            return worldId == that.worldId && userId == that.userId && regionId.equals(that.regionId);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (31 * regionId.hashCode() + worldId) + userId;
+        }
+    }
+
+}
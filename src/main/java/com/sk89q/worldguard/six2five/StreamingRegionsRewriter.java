@@ -0,0 +1,740 @@
+/*
+ * Six2Five
+ * Copyright (C) sk89q <http://www.sk89q.com>
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.sk89q.worldguard.six2five;
+
+import com.google.common.base.Throwables;
+import org.yaml.snakeyaml.emitter.Emitable;
+import org.yaml.snakeyaml.error.YAMLException;
+import org.yaml.snakeyaml.events.CollectionEndEvent;
+import org.yaml.snakeyaml.events.CollectionStartEvent;
+import org.yaml.snakeyaml.events.Event;
+import org.yaml.snakeyaml.events.MappingEndEvent;
+import org.yaml.snakeyaml.events.NodeEvent;
+import org.yaml.snakeyaml.events.ScalarEvent;
+import org.yaml.snakeyaml.events.SequenceStartEvent;
+import org.yaml.snakeyaml.nodes.NodeId;
+import org.yaml.snakeyaml.nodes.Tag;
+import org.yaml.snakeyaml.parser.Parser;
+import org.yaml.snakeyaml.parser.ParserImpl;
+import org.yaml.snakeyaml.reader.StreamReader;
+import org.yaml.snakeyaml.resolver.Resolver;
+
+import javax.annotation.Nullable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Reads and rewrites regions files one parse event at a time.
+ *
+ * <p>Only the {@code owners} and {@code members} domains of each region
+ * are buffered, one at a time, so that their {@code unique-ids} and
+ * {@code players} lists can be read and rewritten. Memory use is
+ * therefore bounded by the largest single domain rather than by the size
+ * of the file.</p>
+ */
+final class StreamingRegionsRewriter {
+
+    private static final Logger log = Logger.getLogger(StreamingRegionsRewriter.class.getCanonicalName());
+    private static final Resolver resolver = new Resolver();
+    private static final Pattern PLAIN_SCALAR = Pattern.compile("[A-Za-z0-9_][A-Za-z0-9_.-]*");
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final int ROOT = 0;
+    private static final int REGIONS = 1;
+    private static final int REGION = 2;
+
+    private static final Emitable DISCARD = new Emitable() {
+        @Override
+        public void emit(Event event) {
+        }
+    };
+
+    private StreamingRegionsRewriter() {
+    }
+
+    /**
+     * Collect every valid UUID in the {@code unique-ids} lists of the
+     * regions file read from the given reader.
+     *
+     * <p>Pass a set to collect distinct UUIDs, or a list to also count
+     * how often each one appears.</p>
+     *
+     * @param reader the reader
+     * @param uniqueIds the collection to add the UUIDs to
+     * @return the number of regions in the file
+     * @throws IOException thrown on I/O error
+     */
+    public static int collectUniqueIds(Reader reader, final Collection<UUID> uniqueIds) throws IOException {
+        return collectUniqueIds(reader, uniqueIds, null);
+    }
+
+    /**
+     * Collect every valid UUID in the {@code unique-ids} lists of the
+     * regions file read from the given reader, and find where the file can
+     * be split into chunks of regions.
+     *
+     * @param reader the reader
+     * @param uniqueIds the collection to add the UUIDs to
+     * @param chunks the chunks to fill in, or null
+     * @return the number of regions in the file
+     * @throws IOException thrown on I/O error
+     */
+    public static int collectUniqueIds(Reader reader, final Collection<UUID> uniqueIds, @Nullable RegionChunks chunks) throws IOException {
+        Walker walker = new Walker(reader, chunks) {
+            @Override
+            protected void processDomain(Domain domain) {
+                @Nullable List<ScalarEvent> rawUuids = domain.getScalars("unique-ids");
+                if (rawUuids == null) return;
+                for (ScalarEvent rawUuid : rawUuids) {
+                    @Nullable UUID uuid = RegionsProcessor.parseUuid(rawUuid.getValue());
+                    if (uuid != null) {
+                        uniqueIds.add(uuid);
+                    } else {
+                        log.log(Level.WARNING, "Invalid UUID: " + rawUuid.getValue());
+                    }
+                }
+            }
+        };
+        walker.walk();
+        return walker.regionCount;
+    }
+
+    /**
+     * Copy the regions file read from the given readers to the given
+     * writer, moving every UUID with a known name from {@code unique-ids}
+     * to {@code players}, and writing only the changed lists.
+     *
+     * <p>Only the {@code unique-ids} and {@code players} entries of the
+     * domains that change are written again, as flow lists on one line.
+     * Everything else is copied character for character from
+     * {@code source}, which must read the same file as {@code reader},
+     * using the positions that the parser reports. Comments, blank lines
+     * and line separators outside of the changed entries are kept; comments
+     * between the items of a changed list are not. The whole file is still
+     * parsed and copied.</p>
+     *
+     * @param reader the reader to parse
+     * @param source another reader of the same file to copy from
+     * @param writer the writer
+     * @param names a map of resolved names
+     * @param progress a reporter to count each region in, or null
+     * @return the number of UUID entries that were replaced with names
+     * @throws IOException thrown on I/O error
+     */
+    public static int splice(Reader reader, Reader source, Writer writer, Map<UUID, String> names,
+                             @Nullable ProgressReporter progress) throws IOException {
+        return splice(reader, source, writer, names, progress, ROOT);
+    }
+
+    /**
+     * Splice the file read from {@code source} like
+     * {@link #splice(Reader, Reader, Writer, Map, ProgressReporter)}, but
+     * parse and rewrite each chunk of regions as a separate task on the
+     * given executor.
+     *
+     * <p>The text before the first chunk and after the last one is copied
+     * as it is, and the chunks are written in order, so the output is the
+     * same as from {@code splice()}. At most {@code maxPending} chunks are
+     * held in memory at once.</p>
+     *
+     * @param source a reader of the file that the chunks were found in
+     * @param writer the writer
+     * @param names a map of resolved names
+     * @param chunks the chunks, which must be splittable
+     * @param executor the executor to splice the chunks on
+     * @param maxPending the most chunks to read ahead of the one being written
+     * @param progress a reporter to count each region in, or null
+     * @return the number of UUID entries that were replaced with names
+     * @throws IOException thrown on I/O error
+     * @throws YAMLException thrown if a chunk could not be parsed on its own
+     */
+    public static int splice(Reader source, Writer writer, final Map<UUID, String> names, RegionChunks chunks,
+                             ExecutorService executor, int maxPending, @Nullable final ProgressReporter progress) throws IOException {
+        checkArgument(chunks.isSplittable(), "The file cannot be split into chunks");
+        checkArgument(maxPending > 0, "maxPending must be > 0");
+        Splicer copier = new Splicer(source, writer);
+        Deque<Future<SplicedChunk>> pending = new ArrayDeque<Future<SplicedChunk>>();
+        int converted = 0;
+
+        try {
+            copier.copyTo(chunks.starts.get(0));
+            for (int i = 0; i < chunks.starts.size(); i++) {
+                final String text = copier.read(i + 1 < chunks.starts.size() ? chunks.starts.get(i + 1) : chunks.end);
+                pending.add(executor.submit(new Callable<SplicedChunk>() {
+                    @Override
+                    public SplicedChunk call() throws IOException {
+                        StringWriter out = new StringWriter(text.length());
+                        int count = splice(new StringReader(text), new StringReader(text), out, names, progress, REGIONS);
+                        return new SplicedChunk(out.toString(), count);
+                    }
+                }));
+                if (pending.size() >= maxPending) {
+                    converted += write(pending.poll(), writer);
+                }
+            }
+            while (!pending.isEmpty()) {
+                converted += write(pending.poll(), writer);
+            }
+        } finally {
+            for (Future<SplicedChunk> future : pending) {
+                future.cancel(true);
+            }
+        }
+
+        copier.finish();
+        return converted;
+    }
+
+    private static int write(Future<SplicedChunk> future, Writer writer) throws IOException {
+        SplicedChunk chunk;
+        try {
+            chunk = future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while converting regions");
+        } catch (ExecutionException e) {
+            Throwables.propagateIfInstanceOf(e.getCause(), IOException.class);
+            throw Throwables.propagate(e.getCause());
+        }
+        writer.write(chunk.text);
+        return chunk.converted;
+    }
+
+    /**
+     * Splice the file, starting at the given level.
+     *
+     * @param level {@link #ROOT} for a whole file, or {@link #REGIONS} for a chunk of regions
+     */
+    private static int splice(Reader reader, Reader source, Writer writer, final Map<UUID, String> names,
+                              @Nullable final ProgressReporter progress, int level) throws IOException {
+        final Splicer splicer = new Splicer(source, writer);
+        final int[] converted = new int[1];
+
+        new Walker(reader) {
+            @Override
+            protected void regionDone() {
+                if (progress != null) {
+                    progress.increment();
+                }
+            }
+
+            @Override
+            protected void processDomain(Domain domain) throws IOException {
+                @Nullable List<ScalarEvent> rawUuids = domain.getScalars("unique-ids");
+                if (rawUuids == null) return;
+
+                List<String> remaining = new ArrayList<String>();
+                List<String> added = new ArrayList<String>();
+                for (ScalarEvent rawUuid : rawUuids) {
+                    @Nullable UUID uuid = RegionsProcessor.parseUuid(rawUuid.getValue());
+                    @Nullable String name = uuid != null ? names.get(uuid) : null;
+                    if (name != null) {
+                        added.add(name);
+                    } else {
+                        remaining.add(rawUuid.getValue());
+                    }
+                }
+
+                if (added.isEmpty()) return;
+
+                converted[0] += added.size();
+
+                @Nullable List<ScalarEvent> existing = domain.getScalars("players");
+                List<String> existingNames = new ArrayList<String>();
+                if (existing != null) {
+                    for (ScalarEvent player : existing) {
+                        existingNames.add(player.getValue());
+                    }
+                }
+                List<String> players = RegionsProcessor.mergeNames(existingNames, added);
+                boolean hasPlayers = domain.getValue("players") != null;
+
+                // Only the lists are replaced, from the start of their key to the
+                // end of their value, in the order that they appear in the file
+                boolean flowDomain = Boolean.TRUE.equals(((CollectionStartEvent) domain.events.get(0)).getFlowStyle());
+                for (int i = 0; i < domain.keys.size(); i++) {
+                    String key = domain.getKeyName(i);
+                    if ("unique-ids".equals(key)) {
+                        StringBuilder builder = new StringBuilder();
+                        builder.append("unique-ids: ").append(formatList(remaining));
+                        if (!hasPlayers) {
+                            builder.append(flowDomain ? ", " : "\n" + indent(domain.keys.get(i).get(0).getStartMark().getColumn()));
+                            builder.append("players: ").append(formatList(players));
+                        }
+                        splicer.replace(domain.keys.get(i), domain.values.get(i), builder.toString());
+                    } else if ("players".equals(key)) {
+                        splicer.replace(domain.keys.get(i), domain.values.get(i), "players: " + formatList(players));
+                    }
+                }
+            }
+        }.walk(level);
+
+        splicer.finish();
+        return converted[0];
+    }
+
+    private static String formatList(List<String> items) {
+        StringBuilder builder = new StringBuilder("[");
+        for (String item : items) {
+            if (builder.length() > 1) {
+                builder.append(", ");
+            }
+            if (resolver.resolve(NodeId.scalar, item, true).equals(Tag.STR) && PLAIN_SCALAR.matcher(item).matches()) {
+                builder.append(item);
+            } else {
+                builder.append('"').append(item.replace("\\", "\\\\").replace("\"", "\\\"")).append('"');
+            }
+        }
+        return builder.append("]").toString();
+    }
+
+    private static String indent(int column) {
+        StringBuilder builder = new StringBuilder(column);
+        for (int i = 0; i < column; i++) {
+            builder.append(' ');
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Get the position just after the given node.
+     *
+     * <p>A block collection ends where the next token starts, which can be
+     * after any number of comments and blank lines, so the end of its last
+     * item is used instead.</p>
+     *
+     * @param node the events of the node
+     * @return the index after the node
+     */
+    private static int getEndIndex(List<Event> node) {
+        Event first = node.get(0);
+        if (first instanceof CollectionStartEvent && node.size() > 2
+                && !Boolean.TRUE.equals(((CollectionStartEvent) first).getFlowStyle())) {
+            int end = node.size() - 1; // Skip the collection end
+            int start = end;
+            int depth = 0;
+            do {
+                Event event = node.get(--start);
+                if (event instanceof CollectionEndEvent) {
+                    depth++;
+                } else if (event instanceof CollectionStartEvent) {
+                    depth--;
+                }
+            } while (depth > 0);
+            return getEndIndex(node.subList(start, end));
+        }
+        return node.get(node.size() - 1).getEndMark().getIndex();
+    }
+
+    /**
+     * Walks the events of a regions file, calling
+     * {@link #processDomain(Domain)} for each buffered domain.
+     */
+    private static abstract class Walker {
+        private final Parser parser;
+        @Nullable
+        private final RegionChunks chunks;
+        private int regionCount;
+
+        Walker(Reader reader) {
+            this(reader, null);
+        }
+
+        Walker(Reader reader, @Nullable RegionChunks chunks) {
+            this.parser = new ParserImpl(new StreamReader(reader));
+            this.chunks = chunks;
+        }
+
+        protected abstract void processDomain(Domain domain) throws IOException;
+
+        protected void regionDone() {
+        }
+
+        void walk() throws IOException {
+            walk(ROOT);
+        }
+
+        /**
+         * Walk every document.
+         *
+         * @param level the level of the mapping at the root of each document
+         * @throws IOException thrown on I/O error
+         */
+        void walk(int level) throws IOException {
+            nextEvent(); // Stream start
+            while (!parser.checkEvent(Event.ID.StreamEnd)) {
+                nextEvent(); // Document start
+                if (parser.checkEvent(Event.ID.MappingStart)) {
+                    walkMapping(level);
+                } else {
+                    transferNode(DISCARD);
+                }
+                nextEvent(); // Document end
+            }
+            nextEvent(); // Stream end
+        }
+
+        private void walkMapping(int level) throws IOException {
+            Event start = nextEvent();
+            if (level == REGIONS && chunks != null) {
+                chunks.startRegions(start);
+            }
+            while (!parser.checkEvent(Event.ID.MappingEnd)) {
+                Event key = parser.peekEvent();
+                if (level == REGIONS && chunks != null) {
+                    chunks.addRegion(key);
+                }
+                @Nullable String keyName = key instanceof ScalarEvent ? ((ScalarEvent) key).getValue() : null;
+                transferNode(DISCARD);
+
+                if (!parser.checkEvent(Event.ID.MappingStart)) {
+                    transferNode(DISCARD);
+                } else if (level == ROOT && "regions".equals(keyName)) {
+                    walkMapping(REGIONS);
+                } else if (level == REGIONS) {
+                    regionCount++;
+                    walkMapping(REGION);
+                    regionDone();
+                } else if (level == REGION && ("owners".equals(keyName) || "members".equals(keyName))) {
+                    List<Event> events = new ArrayList<Event>();
+                    transferNode(events);
+                    processDomain(new Domain(events));
+                } else {
+                    transferNode(DISCARD);
+                }
+            }
+            Event end = nextEvent();
+            if (level == REGIONS && chunks != null) {
+                chunks.endRegions(end);
+            }
+        }
+
+        private Event nextEvent() {
+            Event event = parser.getEvent();
+            // An alias in one chunk could refer to an anchor in another
+            if (chunks != null && event instanceof NodeEvent && ((NodeEvent) event).getAnchor() != null) {
+                chunks.splittable = false;
+            }
+            return event;
+        }
+
+        private void transferNode(final List<Event> target) throws IOException {
+            transferNode(new Emitable() {
+                @Override
+                public void emit(Event event) {
+                    target.add(event);
+                }
+            });
+        }
+
+        private void transferNode(Emitable target) throws IOException {
+            int depth = 0;
+            do {
+                Event event = nextEvent();
+                if (event instanceof CollectionStartEvent) {
+                    depth++;
+                } else if (event instanceof CollectionEndEvent) {
+                    depth--;
+                }
+                target.emit(event);
+            } while (depth > 0);
+        }
+    }
+
+    /**
+     * Copies characters from a reader to a writer up to each replaced
+     * range, skipping over the range and writing its replacement instead.
+     */
+    private static class Splicer {
+        private final Reader source;
+        private final Writer writer;
+        private final char[] buffer = new char[BUFFER_SIZE];
+        private long position = 0;
+        @Nullable
+        private String lineSeparator;
+        private char lastChar;
+
+        private Splicer(Reader source, Writer writer) {
+            this.source = source;
+            this.writer = writer;
+        }
+
+        /**
+         * Replace a key and its value.
+         *
+         * <p>Line breaks in the replacement are written with the line
+         * separator of the file.</p>
+         *
+         * @param key the events of the key
+         * @param value the events of the value
+         * @param replacement the text to write instead
+         * @throws IOException thrown on I/O error
+         */
+        private void replace(List<Event> key, List<Event> value, String replacement) throws IOException {
+            copyTo(key.get(0).getStartMark().getIndex());
+            skipTo(getEndIndex(value));
+            writer.write(replacement.replace("\n", getLineSeparator()));
+        }
+
+        /**
+         * Get the line separator of the file, as found in the text
+         * copied so far.
+         *
+         * @return the line separator
+         */
+        private String getLineSeparator() {
+            return lineSeparator != null ? lineSeparator : "\n";
+        }
+
+        private void detectLineSeparator(char[] chars, int length) {
+            for (int i = 0; i < length && lineSeparator == null; i++) {
+                if (chars[i] == '\n') {
+                    lineSeparator = (i > 0 ? chars[i - 1] : lastChar) == '\r' ? "\r\n" : "\n";
+                }
+            }
+            if (length > 0) {
+                lastChar = chars[length - 1];
+            }
+        }
+
+        private void copyTo(long index) throws IOException {
+            while (position < index) {
+                int read = source.read(buffer, 0, (int) Math.min(buffer.length, index - position));
+                if (read == -1) {
+                    throw new EOFException("The file ended before position " + index);
+                }
+                writer.write(buffer, 0, read);
+                position += read;
+                if (lineSeparator == null) {
+                    detectLineSeparator(buffer, read);
+                }
+            }
+        }
+
+        private String read(long index) throws IOException {
+            StringBuilder builder = new StringBuilder((int) Math.max(0, index - position));
+            while (position < index) {
+                int read = source.read(buffer, 0, (int) Math.min(buffer.length, index - position));
+                if (read == -1) {
+                    throw new EOFException("The file ended before position " + index);
+                }
+                builder.append(buffer, 0, read);
+                position += read;
+            }
+            return builder.toString();
+        }
+
+        private void skipTo(long index) throws IOException {
+            while (position < index) {
+                long skipped = source.skip(index - position);
+                if (skipped <= 0) {
+                    throw new EOFException("The file ended before position " + index);
+                }
+                position += skipped;
+            }
+        }
+
+        private void finish() throws IOException {
+            int read;
+            while ((read = source.read(buffer)) != -1) {
+                writer.write(buffer, 0, read);
+            }
+        }
+    }
+
+    /**
+     * Where a file can be split into chunks of whole regions, found while
+     * it is scanned, so that the chunks can be spliced at the same time.
+     *
+     * <p>Only the start of every {@code chunkSize}th region is kept. A file
+     * can only be split if it has one block style {@code regions} mapping
+     * whose keys all start their line, and no anchors or aliases.</p>
+     */
+    static final class RegionChunks {
+        private final int chunkSize;
+        private final List<Integer> starts = new ArrayList<Integer>();
+        private int end = -1;
+        private int column;
+        private int regionsMappings;
+        private int regionCount;
+        private boolean splittable = true;
+
+        /**
+         * Create a new instance.
+         *
+         * @param chunkSize the number of regions in each chunk
+         */
+        RegionChunks(int chunkSize) {
+            checkArgument(chunkSize > 0, "chunkSize must be > 0");
+            this.chunkSize = chunkSize;
+        }
+
+        private void startRegions(Event start) {
+            regionsMappings++;
+            column = start.getStartMark().getColumn();
+            if (Boolean.TRUE.equals(((CollectionStartEvent) start).getFlowStyle())) {
+                splittable = false;
+            }
+        }
+
+        private void addRegion(Event key) {
+            // Keys of a block mapping line up, so a key in any other column
+            // is an explicit key that does not start its line
+            if (key.getStartMark().getColumn() != column) {
+                splittable = false;
+            }
+            if (regionCount++ % chunkSize == 0) {
+                starts.add(key.getStartMark().getIndex() - column);
+            }
+        }
+
+        private void endRegions(Event end) {
+            // A block mapping ends where the next token starts
+            this.end = end.getStartMark().getIndex();
+        }
+
+        /**
+         * Get whether the file can be split into more than one chunk.
+         *
+         * @return true if it can be split
+         */
+        boolean isSplittable() {
+            return splittable && regionsMappings == 1 && starts.size() > 1 && end >= 0;
+        }
+
+        /**
+         * Get the number of chunks.
+         *
+         * @return the number of chunks
+         */
+        int getChunkCount() {
+            return starts.size();
+        }
+    }
+
+    /**
+     * The output of splicing one chunk.
+     */
+    private static class SplicedChunk {
+        private final String text;
+        private final int converted;
+
+        private SplicedChunk(String text, int converted) {
+            this.text = text;
+            this.converted = converted;
+        }
+    }
+
+    /**
+     * The buffered events of one domain mapping, split into keys and values.
+     */
+    private static class Domain {
+        private final List<Event> events;
+        private final List<List<Event>> keys = new ArrayList<List<Event>>();
+        private final List<List<Event>> values = new ArrayList<List<Event>>();
+
+        private Domain(List<Event> events) {
+            this.events = events;
+
+            int i = 1; // Skip mapping start
+            while (!(events.get(i) instanceof MappingEndEvent)) {
+                int keyEnd = nodeEnd(i);
+                int valueEnd = nodeEnd(keyEnd);
+                keys.add(events.subList(i, keyEnd));
+                values.add(events.subList(keyEnd, valueEnd));
+                i = valueEnd;
+            }
+        }
+
+        private int nodeEnd(int start) {
+            int depth = 0;
+            int i = start;
+            do {
+                Event event = events.get(i++);
+                if (event instanceof CollectionStartEvent) {
+                    depth++;
+                } else if (event instanceof CollectionEndEvent) {
+                    depth--;
+                }
+            } while (depth > 0);
+            return i;
+        }
+
+        @Nullable
+        private String getKeyName(int index) {
+            List<Event> key = keys.get(index);
+            return key.size() == 1 && key.get(0) instanceof ScalarEvent ? ((ScalarEvent) key.get(0)).getValue() : null;
+        }
+
+        @Nullable
+        private List<Event> getValue(String key) {
+            for (int i = 0; i < keys.size(); i++) {
+                if (key.equals(getKeyName(i))) {
+                    return values.get(i);
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Get the items of the given key if its value is a sequence
+         * of scalars.
+         *
+         * @param key the key
+         * @return the scalars, or null if the key is missing or not a list of scalars
+         */
+        @Nullable
+        private List<ScalarEvent> getScalars(String key) {
+            @Nullable List<Event> value = getValue(key);
+            if (value == null || !(value.get(0) instanceof SequenceStartEvent)) {
+                return null;
+            }
+            List<ScalarEvent> scalars = new ArrayList<ScalarEvent>();
+            for (Event event : value.subList(1, value.size() - 1)) {
+                if (!(event instanceof ScalarEvent)) {
+                    return null;
+                }
+                scalars.add((ScalarEvent) event);
+            }
+            return scalars;
+        }
+    }
+
+}
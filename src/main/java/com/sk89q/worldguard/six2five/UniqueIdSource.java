@@ -0,0 +1,52 @@
+/*
+ * Six2Five
+ * Copyright (C) sk89q <http://www.sk89q.com>
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.sk89q.worldguard.six2five;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Looks up the UUIDs of players by their names.
+ *
+ * <p>Player names are not case sensitive, so names are always given and
+ * returned in lower case.</p>
+ *
+ * @see UniqueIdSourceChain
+ */
+public interface UniqueIdSource {
+
+    /**
+     * Get the number of names that this source should be given at once.
+     *
+     * @return the batch size
+     */
+    int getIdealBatchSize();
+
+    /**
+     * Look up the UUIDs of the given names.
+     *
+     * @param names the names, in lower case
+     * @return a map of the names that a UUID was found for
+     * @throws IOException thrown if the lookup could not be completed
+     */
+    Map<String, UUID> resolveUniqueIds(Collection<String> names) throws IOException;
+
+}
@@ -0,0 +1,96 @@
+/*
+ * Six2Five
+ * Copyright (C) sk89q <http://www.sk89q.com>
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.sk89q.worldguard.six2five;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Asks a list of UUID sources in order, giving each source only the names
+ * that the sources before it did not have a UUID for.
+ */
+public class UniqueIdSourceChain extends SourceChain<String, UUID, UniqueIdSource> implements ReportingUniqueIdSource {
+
+    /**
+     * Create a new chain.
+     *
+     * @param sources the sources, fastest first
+     */
+    public UniqueIdSourceChain(List<? extends UniqueIdSource> sources) {
+        super(sources, "uniqueIds.");
+    }
+
+    @Override
+    public int getIdealBatchSize() {
+        return Integer.MAX_VALUE;
+    }
+
+    @Override
+    public Map<String, UUID> resolveUniqueIds(Collection<String> names) throws IOException {
+        return resolve(names, null);
+    }
+
+    @Override
+    public Map<String, UUID> resolveUniqueIds(Collection<String> names, @Nullable ProgressReporter progress) throws IOException {
+        return resolve(names, progress);
+    }
+
+    /**
+     * Look up the UUIDs of the given names from any source, reporting
+     * progress as each name completes if the source can, and all at once
+     * when it returns otherwise.
+     *
+     * @param source the source
+     * @param names the names, in lower case
+     * @param progress the progress to add to
+     * @return a map of the names that a UUID was found for
+     * @throws IOException thrown if the lookup could not be completed
+     */
+    static Map<String, UUID> resolveUniqueIds(UniqueIdSource source, Collection<String> names, ProgressReporter progress) throws IOException {
+        if (source instanceof ReportingUniqueIdSource) {
+            return ((ReportingUniqueIdSource) source).resolveUniqueIds(names, progress);
+        }
+        Map<String, UUID> uniqueIds = source.resolveUniqueIds(names);
+        progress.add(names.size());
+        return uniqueIds;
+    }
+
+    @Override
+    int getIdealBatchSize(UniqueIdSource source) {
+        return source.getIdealBatchSize();
+    }
+
+    @Override
+    boolean isReporting(UniqueIdSource source) {
+        return source instanceof ReportingUniqueIdSource;
+    }
+
+    @Override
+    Map<String, UUID> resolve(UniqueIdSource source, List<String> batch, @Nullable ProgressReporter progress) throws IOException {
+        return progress != null && source instanceof ReportingUniqueIdSource
+                ? ((ReportingUniqueIdSource) source).resolveUniqueIds(batch, progress)
+                : source.resolveUniqueIds(batch);
+    }
+
+}
@@ -20,14 +20,18 @@ package com.sk89q.worldguard.six2five.util;
 
 import javax.swing.*;
 import javax.swing.text.AttributeSet;
-import javax.swing.text.BadLocationException;
-import javax.swing.text.DefaultCaret;
-import javax.swing.text.Document;
-import javax.swing.text.JTextComponent;
 import javax.swing.text.SimpleAttributeSet;
 import javax.swing.text.StyleConstants;
 import java.awt.*;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.awt.event.MouseEvent;
 import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Handler;
 import java.util.logging.Level;
 import java.util.logging.LogRecord;
@@ -35,16 +39,26 @@ import java.util.logging.Logger;
 
 /**
  * A simple message log.
+ *
+ * <p>Messages may be logged from any thread. They are queued and moved
+ * into a list of at most {@code numLines} lines a few times a second on
+ * the event dispatch thread, so a flood of messages costs one update per
+ * flush rather than one per message. Only the visible lines are ever
+ * rendered.</p>
  */
 public class MessageLog extends JPanel {
 
     private static final Logger rootLogger = Logger.getLogger("");
-    
+    private static final int FLUSH_INTERVAL = 200;
+
     private final int numLines;
     private final boolean colorEnabled;
-    
-    protected JTextComponent textComponent;
-    protected Document document;
+
+    private final Queue<Line> pending = new ConcurrentLinkedQueue<Line>();
+    private final AtomicInteger pendingCount = new AtomicInteger();
+    private final RingBufferListModel<Line> model;
+    private final Timer flushTimer;
+    private JList<Line> list;
 
     private Handler loggerHandler;
     protected final SimpleAttributeSet defaultAttributes = new SimpleAttributeSet();
@@ -56,63 +70,129 @@ public class MessageLog extends JPanel {
     public MessageLog(int numLines, boolean colorEnabled) {
         this.numLines = numLines;
         this.colorEnabled = colorEnabled;
-        
+        this.model = new RingBufferListModel<Line>(numLines);
+
         this.highlightedAttributes = new SimpleAttributeSet();
         StyleConstants.setForeground(highlightedAttributes, new Color(0xFF7F00));
-        
+
         this.errorAttributes = new SimpleAttributeSet();
         StyleConstants.setForeground(errorAttributes, new Color(0xFF0000));
         this.infoAttributes = new SimpleAttributeSet();
         this.debugAttributes = new SimpleAttributeSet();
 
         setLayout(new BorderLayout());
-        
+
         initComponents();
+
+        flushTimer = new Timer(FLUSH_INTERVAL, new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                flush();
+            }
+        });
     }
 
     private void initComponents() {
-        if (colorEnabled) {
-            this.textComponent = new JTextPane() {
-                @Override
-                public boolean getScrollableTracksViewportWidth() {
-                    return true;
-                }
-            };
-        } else {
-            JTextArea text = new JTextArea();
-            this.textComponent = text;
-            text.setLineWrap(true);
-            text.setWrapStyleWord(true);
-        }
-
-        textComponent.setFont(new JLabel().getFont());
-        textComponent.setEditable(false);
-        textComponent.setComponentPopupMenu(TextFieldPopupMenu.INSTANCE);
-        DefaultCaret caret = (DefaultCaret) textComponent.getCaret();
-        caret.setUpdatePolicy(DefaultCaret.NEVER_UPDATE);
-        document = textComponent.getDocument();
-        document.addDocumentListener(new LimitLinesDocumentListener(numLines, true));
-        
-        JScrollPane scrollText = new JScrollPane(textComponent);
+        list = new JList<Line>(model) {
+            @Override
+            public boolean getScrollableTracksViewportWidth() {
+                return true;
+            }
+
+            @Override
+            public String getToolTipText(MouseEvent event) {
+                // locationToIndex() returns the closest cell, even below the last line
+                int index = locationToIndex(event.getPoint());
+                if (index < 0) return null;
+                Rectangle bounds = getCellBounds(index, index);
+                return bounds != null && bounds.contains(event.getPoint()) ? model.getElementAt(index).text : null;
+            }
+        };
+        list.setFont(new JLabel().getFont());
+        list.setCellRenderer(new LineRenderer());
+        // Fixed cell sizes stop the list from measuring every line; the width
+        // comes from the viewport anyway
+        list.setFixedCellHeight(list.getFontMetrics(list.getFont()).getHeight() + 2);
+        list.setFixedCellWidth(1);
+        list.setComponentPopupMenu(createPopupMenu());
+        ToolTipManager.sharedInstance().registerComponent(list);
+
+        JScrollPane scrollText = new JScrollPane(list);
         scrollText.setVerticalScrollBarPolicy(ScrollPaneConstants.VERTICAL_SCROLLBAR_ALWAYS);
         scrollText.setHorizontalScrollBarPolicy(ScrollPaneConstants.HORIZONTAL_SCROLLBAR_NEVER);
-        
+
         add(scrollText, BorderLayout.CENTER);
     }
-    
+
+    private JPopupMenu createPopupMenu() {
+        JPopupMenu menu = new JPopupMenu();
+
+        JMenuItem copyItem = new JMenuItem("Copy", 'C');
+        copyItem.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                if (list.isSelectionEmpty()) {
+                    selectAll();
+                }
+                TransferHandler.getCopyAction().actionPerformed(
+                        new ActionEvent(list, ActionEvent.ACTION_PERFORMED, "copy"));
+            }
+        });
+        menu.add(copyItem);
+
+        menu.addSeparator();
+
+        JMenuItem selectAllItem = new JMenuItem("Select all", 'A');
+        selectAllItem.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                selectAll();
+            }
+        });
+        menu.add(selectAllItem);
+
+        return menu;
+    }
+
+    private void selectAll() {
+        if (model.getSize() > 0) {
+            list.setSelectionInterval(0, model.getSize() - 1);
+        }
+    }
+
+    @Override
+    public void addNotify() {
+        super.addNotify();
+        flushTimer.start();
+    }
+
+    @Override
+    public void removeNotify() {
+        flushTimer.stop();
+        super.removeNotify();
+    }
+
     public String getPastableText() {
-        String text = textComponent.getText().replaceAll("[\r\n]+", "\n");
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < model.getSize(); i++) {
+            builder.append(model.getElementAt(i).text).append("\n");
+        }
+        String text = builder.toString();
         text = text.replaceAll("Session ID is [A-Fa-f0-9]+", "Session ID is [redacted]");
         return text;
     }
 
     public void clear() {
-        textComponent.setText("");
+        pending.clear();
+        pendingCount.set(0);
+        model.clear();
     }
-    
+
     /**
      * Log a message given the {@link javax.swing.text.AttributeSet}.
-     * 
+     *
+     * <p>This may be called from any thread.</p>
+     *
      * @param line line
      * @param attributes attribute set, or null for none
      */
@@ -122,29 +202,59 @@ public class MessageLog extends JPanel {
                 attributes = highlightedAttributes;
             }
         }
-        
-        try {
-            int offset = document.getLength();
-            document.insertString(offset, line,
-                    (attributes != null && colorEnabled) ? attributes : defaultAttributes);
-            textComponent.setCaretPosition(document.getLength());
-        } catch (BadLocationException ble) {
-        
+
+        Color color = null;
+        if (colorEnabled && attributes != null && attributes.isDefined(StyleConstants.Foreground)) {
+            color = StyleConstants.getForeground(attributes);
+        }
+
+        for (String text : line.split("\r?\n")) {
+            if (text.isEmpty()) continue;
+            pending.add(new Line(text.replace("\t", "    "), color));
+            // Anything beyond what the list can hold would be dropped on the
+            // next flush anyway, so drop it now to keep the queue bounded
+            if (pendingCount.incrementAndGet() > numLines && pending.poll() != null) {
+                pendingCount.decrementAndGet();
+            }
         }
     }
-    
+
+    /**
+     * Move the queued lines into the list. Called on the event
+     * dispatch thread.
+     */
+    private void flush() {
+        List<Line> batch = new ArrayList<Line>();
+        Line line;
+        while ((line = pending.poll()) != null) {
+            pendingCount.decrementAndGet();
+            batch.add(line);
+        }
+        if (batch.isEmpty()) return;
+
+        // Only follow new lines if the user has not scrolled up
+        JScrollBar bar = ((JScrollPane) SwingUtilities.getAncestorOfClass(JScrollPane.class, list)).getVerticalScrollBar();
+        boolean atBottom = bar.getValue() + bar.getVisibleAmount() >= bar.getMaximum();
+
+        model.addAll(batch);
+
+        if (atBottom) {
+            list.ensureIndexIsVisible(model.getSize() - 1);
+        }
+    }
+
     /**
      * Get an output stream that can be written to.
-     * 
+     *
      * @return output stream
      */
     public ConsoleOutputStream getOutputStream() {
         return getOutputStream((AttributeSet) null);
     }
-    
+
     /**
      * Get an output stream with the given attribute set.
-     * 
+     *
      * @param attributes attributes
      * @return output stream
      */
@@ -154,7 +264,7 @@ public class MessageLog extends JPanel {
 
     /**
      * Get an output stream using the give color.
-     * 
+     *
      * @param color color to use
      * @return output stream
      */
@@ -171,7 +281,7 @@ public class MessageLog extends JPanel {
         loggerHandler = new ConsoleLoggerHandler();
         rootLogger.addHandler(loggerHandler);
     }
-    
+
     /**
      * Detach the handler on the global logger.
      */
@@ -202,6 +312,39 @@ public class MessageLog extends JPanel {
         return debugAttributes;
     }
 
+    /**
+     * One line of the log.
+     */
+    private static class Line {
+        private final String text;
+        private final Color color;
+
+        private Line(String text, Color color) {
+            this.text = text;
+            this.color = color;
+        }
+
+        @Override
+        public String toString() {
+            return text;
+        }
+    }
+
+    /**
+     * Draws a line in its color.
+     */
+    private static class LineRenderer extends DefaultListCellRenderer {
+        @Override
+        public Component getListCellRendererComponent(JList<?> list, Object value, int index, boolean isSelected, boolean cellHasFocus) {
+            super.getListCellRendererComponent(list, value, index, isSelected, false);
+            Line line = (Line) value;
+            if (!isSelected && line.color != null) {
+                setForeground(line.color);
+            }
+            return this;
+        }
+    }
+
     /**
      * Used to send logger messages to the console.
      */
@@ -211,7 +354,6 @@ public class MessageLog extends JPanel {
         @Override
         public void publish(LogRecord record) {
             Level level = record.getLevel();
-            Throwable t = record.getThrown();
             AttributeSet attributes = defaultAttributes;
 
             if (level.intValue() >= Level.WARNING.intValue()) {
@@ -0,0 +1,111 @@
+/*
+ * Six2Five
+ * Copyright (C) sk89q <http://www.sk89q.com>
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.sk89q.worldguard.six2five.util;
+
+import javax.swing.*;
+import java.util.List;
+
+/**
+ * A list model that holds at most a fixed number of elements, dropping the
+ * oldest ones to make room for new ones.
+ *
+ * <p>Like every Swing model, it must only be used from the event
+ * dispatch thread.</p>
+ *
+ * @param <E> the type of element
+ */
+public class RingBufferListModel<E> extends AbstractListModel<E> {
+
+    private final Object[] elements;
+    private int head = 0;
+    private int size = 0;
+
+    /**
+     * Create a new model.
+     *
+     * @param capacity the most elements to hold
+     */
+    public RingBufferListModel(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be greater than 0");
+        }
+        this.elements = new Object[capacity];
+    }
+
+    @Override
+    public int getSize() {
+        return size;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public E getElementAt(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size);
+        }
+        return (E) elements[(head + index) % elements.length];
+    }
+
+    /**
+     * Add a batch of elements.
+     *
+     * <p>If old elements have to be dropped, one event is fired for the
+     * elements removed from the start and one for the elements added at
+     * the end. Otherwise only the added elements are reported.</p>
+     *
+     * @param batch the elements
+     */
+    public void addAll(List<? extends E> batch) {
+        if (batch.isEmpty()) return;
+
+        int oldSize = size;
+        // Only the last elements can survive if the batch is bigger than the buffer
+        List<? extends E> kept = batch.subList(Math.max(0, batch.size() - elements.length), batch.size());
+        for (E element : kept) {
+            if (size < elements.length) {
+                elements[(head + size) % elements.length] = element;
+                size++;
+            } else {
+                elements[head] = element;
+                head = (head + 1) % elements.length;
+            }
+        }
+
+        int removed = oldSize + kept.size() - size;
+        if (removed > 0) {
+            fireIntervalRemoved(this, 0, removed - 1);
+        }
+        fireIntervalAdded(this, oldSize - removed, size - 1);
+    }
+
+    /**
+     * Remove every element.
+     */
+    public void clear() {
+        if (size == 0) return;
+        int oldSize = size;
+        for (int i = 0; i < elements.length; i++) {
+            elements[i] = null;
+        }
+        head = 0;
+        size = 0;
+        fireIntervalRemoved(this, 0, oldSize - 1);
+    }
+
+}
@@ -0,0 +1,276 @@
+/*
+ * Six2Five
+ * Copyright (C) sk89q <http://www.sk89q.com>
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.sk89q.worldguard.six2five;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class SqlRegionsProcessorTest {
+
+    private static final String PREFIX = "wg_";
+    private static int databaseCount = 0;
+
+    private Connection conn;
+    private StubNameSource source;
+
+    @Before
+    public void setUp() throws SQLException {
+        conn = DriverManager.getConnection("jdbc:h2:mem:six2five" + (databaseCount++));
+        source = new StubNameSource();
+
+        // The tables of WorldGuard 6's first SQL migration that the processor uses
+        execute("CREATE TABLE " + PREFIX + "world (id INT AUTO_INCREMENT PRIMARY KEY, name VARCHAR(128) NOT NULL)");
+        execute("CREATE TABLE " + PREFIX + "region (id VARCHAR(128) NOT NULL, world_id INT NOT NULL, type VARCHAR(32) NOT NULL, "
+                + "priority SMALLINT NOT NULL DEFAULT 0, parent VARCHAR(128), PRIMARY KEY (id, world_id))");
+        execute("CREATE TABLE " + PREFIX + "user (id INT AUTO_INCREMENT PRIMARY KEY, name VARCHAR(64), uuid CHAR(36), "
+                + "UNIQUE (name), UNIQUE (uuid))");
+        execute("CREATE TABLE " + PREFIX + "region_players (region_id VARCHAR(128) NOT NULL, world_id INT NOT NULL, "
+                + "user_id INT NOT NULL, owner BOOLEAN NOT NULL, PRIMARY KEY (region_id, world_id, user_id))");
+        execute("INSERT INTO " + PREFIX + "world (id, name) VALUES (1, 'world')");
+    }
+
+    @After
+    public void tearDown() throws SQLException {
+        conn.close();
+    }
+
+    @Test
+    public void testRename() throws Exception {
+        UUID uuid = UUID.randomUUID();
+        source.names.put(uuid, "Notch");
+        int user = addUser(null, uuid);
+        addRegion("spawn");
+        addPlayer("spawn", user, true);
+
+        assertTrue(new SqlRegionsProcessor(source, PREFIX).downgrade(conn));
+
+        assertEquals("notch", getName(user));
+        assertEquals(Boolean.TRUE, getOwner("spawn", user));
+    }
+
+    @Test
+    public void testUnresolvedLeftAlone() throws Exception {
+        UUID uuid = UUID.randomUUID();
+        int user = addUser(null, uuid);
+
+        assertTrue(new SqlRegionsProcessor(source, PREFIX).downgrade(conn));
+
+        assertNull(getName(user));
+        assertEquals(1, count(PREFIX + "user"));
+    }
+
+    @Test
+    public void testMerge() throws Exception {
+        UUID uuid = UUID.randomUUID();
+        source.names.put(uuid, "Bob");
+        int named = addUser("bob", null);
+        int unnamed = addUser(null, uuid);
+        addRegion("shop");
+        addRegion("farm");
+        addPlayer("shop", unnamed, false);
+        addPlayer("farm", named, true);
+        addPlayer("farm", unnamed, false);
+
+        assertTrue(new SqlRegionsProcessor(source, PREFIX).downgrade(conn));
+
+        assertEquals(1, count(PREFIX + "user"));
+        assertEquals(Boolean.FALSE, getOwner("shop", named));
+        assertEquals(Boolean.TRUE, getOwner("farm", named));
+        assertEquals(2, count(PREFIX + "region_players"));
+    }
+
+    @Test
+    public void testMergePromotesOwner() throws Exception {
+        UUID uuid = UUID.randomUUID();
+        source.names.put(uuid, "Bob");
+        int named = addUser("bob", null);
+        int unnamed = addUser(null, uuid);
+        addRegion("farm");
+        addPlayer("farm", named, false);
+        addPlayer("farm", unnamed, true);
+
+        assertTrue(new SqlRegionsProcessor(source, PREFIX).downgrade(conn));
+
+        assertEquals(Boolean.TRUE, getOwner("farm", named));
+        assertNull(getOwner("farm", unnamed));
+        assertEquals(1, count(PREFIX + "region_players"));
+    }
+
+    @Test
+    public void testRestartAfterPartialCommit() throws Exception {
+        int total = SqlRegionsProcessor.CHUNK_SIZE + 500;
+        List<Integer> users = new ArrayList<Integer>();
+        for (int i = 0; i < total; i++) {
+            UUID uuid = UUID.randomUUID();
+            source.names.put(uuid, "player" + i);
+            users.add(addUser(null, uuid));
+        }
+
+        // The first chunk is committed, then the connection fails, which the
+        // processor logs with a stack trace that would only clutter the test log
+        Logger logger = Logger.getLogger(SqlRegionsProcessor.class.getCanonicalName());
+        Level level = logger.getLevel();
+        logger.setLevel(Level.OFF);
+        try {
+            assertFalse(new SqlRegionsProcessor(source, PREFIX).downgrade(failOnCommit(conn, 2)));
+        } finally {
+            logger.setLevel(level);
+        }
+        assertEquals(SqlRegionsProcessor.CHUNK_SIZE, countNamed());
+
+        source.requested.clear();
+        assertTrue(new SqlRegionsProcessor(source, PREFIX).downgrade(conn));
+        assertEquals(total, countNamed());
+        assertEquals(total - SqlRegionsProcessor.CHUNK_SIZE, source.requested.size());
+        for (int i = 0; i < total; i++) {
+            assertEquals("player" + i, getName(users.get(i)));
+        }
+    }
+
+    private void execute(String sql) throws SQLException {
+        Statement stmt = conn.createStatement();
+        try {
+            stmt.execute(sql);
+        } finally {
+            stmt.close();
+        }
+    }
+
+    private int addUser(String name, UUID uuid) throws SQLException {
+        PreparedStatement stmt = conn.prepareStatement("INSERT INTO " + PREFIX + "user (name, uuid) VALUES (?, ?)", Statement.RETURN_GENERATED_KEYS);
+        try {
+            stmt.setString(1, name);
+            stmt.setString(2, uuid != null ? uuid.toString() : null);
+            stmt.executeUpdate();
+            ResultSet rs = stmt.getGeneratedKeys();
+            assertTrue(rs.next());
+            return rs.getInt(1);
+        } finally {
+            stmt.close();
+        }
+    }
+
+    private void addRegion(String id) throws SQLException {
+        execute("INSERT INTO " + PREFIX + "region (id, world_id, type) VALUES ('" + id + "', 1, 'cuboid')");
+    }
+
+    private void addPlayer(String regionId, int userId, boolean owner) throws SQLException {
+        execute("INSERT INTO " + PREFIX + "region_players (region_id, world_id, user_id, owner) VALUES ('"
+                + regionId + "', 1, " + userId + ", " + owner + ")");
+    }
+
+    private String getName(int userId) throws SQLException {
+        return (String) queryValue("SELECT name FROM " + PREFIX + "user WHERE id = " + userId);
+    }
+
+    private Boolean getOwner(String regionId, int userId) throws SQLException {
+        return (Boolean) queryValue("SELECT owner FROM " + PREFIX + "region_players WHERE region_id = '"
+                + regionId + "' AND world_id = 1 AND user_id = " + userId);
+    }
+
+    private int count(String table) throws SQLException {
+        return ((Number) queryValue("SELECT COUNT(*) FROM " + table)).intValue();
+    }
+
+    private int countNamed() throws SQLException {
+        return ((Number) queryValue("SELECT COUNT(*) FROM " + PREFIX + "user WHERE name IS NOT NULL")).intValue();
+    }
+
+    private Object queryValue(String sql) throws SQLException {
+        Statement stmt = conn.createStatement();
+        try {
+            ResultSet rs = stmt.executeQuery(sql);
+            return rs.next() ? rs.getObject(1) : null;
+        } finally {
+            stmt.close();
+        }
+    }
+
+    /**
+     * Wrap a connection so that the given commit, counting from one, throws
+     * as if the connection had been lost.
+     */
+    private static Connection failOnCommit(final Connection conn, final int failingCommit) {
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[] { Connection.class }, new InvocationHandler() {
+            private int commits = 0;
+
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                if (method.getName().equals("commit") && ++commits == failingCommit) {
+                    throw new SQLException("Connection lost");
+                }
+                try {
+                    return method.invoke(conn, args);
+                } catch (InvocationTargetException e) {
+                    throw e.getCause();
+                }
+            }
+        });
+    }
+
+    private static class StubNameSource implements NameSource {
+        private final Map<UUID, String> names = new HashMap<UUID, String>();
+        private final List<UUID> requested = new ArrayList<UUID>();
+
+        @Override
+        public int getIdealBatchSize() {
+            return Integer.MAX_VALUE;
+        }
+
+        @Override
+        public Map<UUID, String> resolveAll(Collection<UUID> uuids) {
+            requested.addAll(uuids);
+            Map<UUID, String> found = new HashMap<UUID, String>();
+            for (UUID uuid : uuids) {
+                String name = names.get(uuid);
+                if (name != null) {
+                    found.put(uuid, name);
+                }
+            }
+            return found;
+        }
+    }
+
+}